@@ -0,0 +1,376 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.omegat.core.Core;
+import org.omegat.core.data.ProjectProperties;
+import org.omegat.core.data.RealProject;
+import org.omegat.core.data.SourceTextEntry;
+import org.omegat.core.data.TMXEntry;
+import org.omegat.filters2.master.FilterMaster;
+import org.omegat.filters2.master.PluginUtils;
+import org.omegat.util.Language;
+import org.omegat.util.Preferences;
+import org.omegat.util.ProjectFileStorage;
+
+/**
+ * Pre-translates an OmegaT project with the Autshumato MT service, without
+ * the OmegaT window.
+ * <p>All unique untranslated source segments of the project are translated
+ * in batch requests, several at a time, and written to
+ * <code>tm/mt/autshumato-mt.tmx</code> as they arrive. OmegaT then offers
+ * them as machine translation matches when the project is opened. Segments
+ * that only differ from another in numbers, tags or spacing are not sent:
+ * their translation is derived from the other's, see
+ * {@link SegmentNormalizer}.
+ * <p>Every received translation is also appended to a journal next to the
+ * TMX file. When a run is interrupted, the next run takes the journaled
+ * translations instead of requesting them again. The journal is deleted
+ * once the TMX file is complete.
+ * <p>With <code>--targets</code>, all source segments are translated into
+ * each of the given languages instead, at the same time, and written to a
+ * TMX file per language in the <code>--out</code> folder. The segments are
+ * prepared once for all languages.
+ * <p>Usage:
+ * <code>java -cp OmegaT.jar:lib/*:plugins/OmegaT-plugins-AutshumatoMT.jar
+ * org.omegat.plugin.machinetranslators.AutshumatoPreTranslate
+ * [--threads N] [--targets af,zu,...] [--out folder] project-folder</code>
+ */
+public class AutshumatoPreTranslate
+{
+    /** Folder under the project's tm folder that OmegaT reads as MT. */
+    static final String MT_DIR = "mt";
+    static final String TMX_NAME = "autshumato-mt.tmx";
+    /** Folder in the project that receives the TMX files of other languages. */
+    static final String TARGETS_DIR = "autshumato-mt";
+    private static final String JOURNAL_EXT = ".journal";
+    private static final int DEFAULT_THREADS = 8;
+
+    private final AutshumatoTranslate translator;
+    private final Language sLang;
+    private final int threads;
+
+    /**
+     * Creates a pre-translation job.
+     * @param translator Translator sending the requests
+     * @param sLang Source language of the project
+     * @param threads Number of batch requests sent at the same time
+     */
+    AutshumatoPreTranslate(AutshumatoTranslate translator, Language sLang, int threads) {
+        this.translator = translator;
+        this.sLang = sLang;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs the pre-translation of a project.
+     * @param args <code>[--threads N] [--targets af,zu,...] [--out folder] project-folder</code>
+     */
+    public static void main(String[] args) {
+        File projectDir = null;
+        int threads = DEFAULT_THREADS;
+        List<Language> targets = null;
+        File outDir = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                } else if ("--targets".equals(args[i]) && i + 1 < args.length) {
+                    targets = parseLanguages(args[++i]);
+                } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                    outDir = new File(args[++i]);
+                } else if (projectDir == null && !args[i].startsWith("--")) {
+                    projectDir = new File(args[i]);
+                } else {
+                    projectDir = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            projectDir = null;
+        }
+        if (projectDir == null || (targets != null && targets.isEmpty())) {
+            System.err.println("Usage: " + AutshumatoPreTranslate.class.getName()
+                    + " [--threads N] [--targets af,zu,...] [--out folder] project-folder");
+            System.exit(2);
+        }
+        int status;
+        try {
+            status = run(projectDir, threads, targets, outDir) == 0 ? 0 : 1;
+        } catch (Exception ex) {
+            System.err.println("Pre-translation failed: " + ex);
+            ex.printStackTrace();
+            status = 2;
+        }
+        // OmegaT leaves non-daemon threads behind
+        System.exit(status);
+    }
+
+    private static List<Language> parseLanguages(String codes) {
+        List<Language> languages = new ArrayList<>();
+        for (String code : codes.split("[,\\s]+")) {
+            if (!code.isEmpty()) {
+                languages.add(new Language(code));
+            }
+        }
+        return languages;
+    }
+
+    /**
+     * Loads a project and pre-translates it.
+     * @param projectDir Project folder
+     * @param threads Number of batch requests sent at the same time
+     * @param targets Languages to translate all segments into, or null for
+     *        the untranslated segments in the project's target language
+     * @param outDir Folder for the TMX files of the target languages, or
+     *        null for the project's autshumato-mt folder
+     * @return the number of segments that could not be translated
+     * @throws Exception when the project cannot be loaded or the TMX written
+     */
+    static int run(File projectDir, int threads, List<Language> targets, File outDir) throws Exception {
+        // Same start-up as OmegaT's own console modes, so that the file
+        // filters and segmentation rules of the project are available
+        Map<String, String> params = new TreeMap<>();
+        Preferences.init();
+        PluginUtils.loadPlugins(params);
+        FilterMaster.setFilterClasses(PluginUtils.getFilterClasses());
+        Preferences.initFilters();
+        Preferences.initSegmentation();
+        Core.initializeConsole(params);
+        ProjectProperties props = ProjectFileStorage.loadProjectProperties(projectDir.getAbsoluteFile());
+        props.verifyProject();
+        RealProject project = new RealProject(props);
+        Core.setProject(project);
+        project.loadProject(true);
+        try {
+            AutshumatoPreTranslate job = new AutshumatoPreTranslate(new AutshumatoTranslate(),
+                    props.getSourceLanguage(), threads);
+            if (targets != null) {
+                Set<String> texts = allSegments(project);
+                System.out.println(texts.size() + " unique segments in " + projectDir + " for "
+                        + targets.size() + " languages");
+                File dir = outDir != null ? outDir : new File(props.getProjectRoot(), TARGETS_DIR);
+                return job.translateToAll(texts, targets, dir);
+            }
+            Set<String> texts = untranslated(project);
+            System.out.println(texts.size() + " unique untranslated segments in " + projectDir);
+            File tmx = new File(new File(props.getTMRoot(), MT_DIR), TMX_NAME);
+            return job.translate(texts, props.getTargetLanguage(), tmx);
+        } finally {
+            project.closeProject();
+        }
+    }
+
+    /**
+     * Collects the source text of the segments without a translation.
+     * @param project Loaded project
+     * @return the unique texts, in project order
+     */
+    static Set<String> untranslated(RealProject project) {
+        Set<String> texts = new LinkedHashSet<>();
+        for (SourceTextEntry ste : project.getAllEntries()) {
+            TMXEntry info = project.getTranslationInfo(ste);
+            if ((info == null || !info.isTranslated()) && !ste.getSrcText().trim().isEmpty()) {
+                texts.add(ste.getSrcText());
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * Collects the source text of all segments.
+     * @param project Loaded project
+     * @return the unique texts, in project order
+     */
+    static Set<String> allSegments(RealProject project) {
+        Set<String> texts = new LinkedHashSet<>();
+        for (SourceTextEntry ste : project.getAllEntries()) {
+            if (!ste.getSrcText().trim().isEmpty()) {
+                texts.add(ste.getSrcText());
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * Translates texts into several languages at the same time, each
+     * written to its own TMX file <code>autshumato-mt-LANG.tmx</code>. The
+     * texts are prepared once, and the threads are shared by the languages.
+     * @param texts Unique source texts
+     * @param tLangs Target languages
+     * @param dir Folder for the TMX files
+     * @return the number of translations that failed, over all languages
+     * @throws Exception when a TMX file or journal cannot be written
+     */
+    int translateToAll(Collection<String> texts, List<Language> tLangs, File dir) throws Exception {
+        List<PreparedSegment> segments = PreparedSegment.prepareAll(texts);
+        AutshumatoPreTranslate perLanguage = new AutshumatoPreTranslate(translator, sLang,
+                Math.max(1, threads / tLangs.size()));
+        Map<Language, Integer> results = translator.forEachLanguage(tLangs, tLang -> perLanguage.translate(
+                segments, tLang, new File(dir, "autshumato-mt-" + tLang.getLanguage() + ".tmx")));
+        int failed = 0;
+        for (int n : results.values()) {
+            failed += n;
+        }
+        return failed;
+    }
+
+    /**
+     * Translates texts into one language and writes them to a TMX file,
+     * resuming from the journal of an interrupted run.
+     * @param texts Unique source texts
+     * @param tLang Target language
+     * @param tmx TMX file to write
+     * @return the number of texts that could not be translated
+     * @throws IOException when the TMX file or journal cannot be written
+     * @throws InterruptedException when the job is interrupted
+     */
+    int translate(Collection<String> texts, Language tLang, File tmx) throws IOException, InterruptedException {
+        return translate(PreparedSegment.prepareAll(texts), tLang, tmx);
+    }
+
+    private int translate(List<PreparedSegment> segments, Language tLang, File tmx)
+            throws IOException, InterruptedException {
+        String lang = tLang.getLanguage() + ": ";
+        File journalFile = new File(tmx.getPath() + JOURNAL_EXT);
+        ProjectTranslationCache journal = ProjectTranslationCache.open(journalFile);
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<List<String>>> requests = new ArrayList<>();
+        try (MTTmxWriter writer = MTTmxWriter.create(tmx, sLang, tLang)) {
+            List<PreparedSegment> pending = new ArrayList<>();
+            for (PreparedSegment segment : segments) {
+                String tr = journal.get(key(tLang, segment.getText()));
+                if (tr != null) {
+                    writer.write(segment.getText(), tr);
+                } else {
+                    pending.add(segment);
+                }
+            }
+            if (writer.getCount() > 0) {
+                System.out.println(lang + writer.getCount() + " segments taken from the journal of an earlier run");
+            }
+
+            // Segments that only differ from an earlier one in numbers or
+            // spacing go last, when the translation they are derived from is
+            // known, so the whole project is deduplicated and not just a batch
+            List<PreparedSegment> unique = new ArrayList<>();
+            List<PreparedSegment> variants = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            for (PreparedSegment segment : pending) {
+                boolean first = segment.isUntranslatable() || keys.add(segment.getNormalizedKey());
+                (first ? unique : variants).add(segment);
+            }
+            if (!variants.isEmpty()) {
+                System.out.println(lang + variants.size() + " segments only differ in numbers or spacing from the "
+                        + unique.size() + " others");
+            }
+
+            // A group per batch request, translated on the translator's
+            // asynchronous executor; the permits bound the groups in flight
+            int groupSize = Math.max(1, AutshumatoSettings.getBatchSegments());
+            Semaphore permits = new Semaphore(threads);
+            for (List<PreparedSegment> phase : Arrays.asList(unique, variants)) {
+                for (int start = 0; start < phase.size(); start += groupSize) {
+                    List<PreparedSegment> group = phase.subList(start, Math.min(phase.size(), start + groupSize));
+                    permits.acquire();
+                    CompletableFuture<List<String>> request = translator.translatePreparedAsync(sLang, tLang, group,
+                            MTPriority.BULK);
+                    requests.add(request);
+                    request.whenComplete((translations, error) -> {
+                        try {
+                            if (error != null) {
+                                throw error;
+                            }
+                            int missing = writeGroup(group, translations, tLang, writer, journal);
+                            if (missing > 0) {
+                                failed.addAndGet(missing);
+                                System.err.println(lang + "Could not translate " + missing + " segments, see the log");
+                            }
+                        } catch (Throwable ex) {
+                            failed.addAndGet(group.size());
+                            System.err.println(lang + "Could not translate " + group.size() + " segments: " + ex.getMessage());
+                        } finally {
+                            permits.release();
+                            System.out.println(lang + "Translated " + writer.getCount() + " of " + segments.size()
+                                    + " segments");
+                        }
+                    });
+                }
+                // Wait for the phase to finish
+                permits.acquire(threads);
+                permits.release(threads);
+            }
+
+            writer.finish();
+        } finally {
+            // Interrupted: abort the requests still in flight
+            for (CompletableFuture<List<String>> request : requests) {
+                request.cancel(true);
+            }
+            journal.close();
+        }
+        if (failed.get() == 0 && !journalFile.delete() && journalFile.exists()) {
+            journalFile.deleteOnExit();
+        }
+        System.out.println(lang + "Wrote " + (segments.size() - failed.get()) + " translations to " + tmx
+                + (failed.get() == 0 ? "" : ", " + failed.get() + " segments failed"));
+        return failed.get();
+    }
+
+    // Writes the translated segments of a group, returns the number without a translation
+    private int writeGroup(List<PreparedSegment> group, List<String> translations, Language tLang,
+            MTTmxWriter writer, ProjectTranslationCache journal) throws IOException {
+        int missing = 0;
+        for (int i = 0; i < group.size(); i++) {
+            String text = group.get(i).getText();
+            String tr = translations.get(i);
+            if (tr == null) {
+                missing++;
+                continue;
+            }
+            // Journal first: a translation in the journal is never lost
+            journal.put(key(tLang, text), tr);
+            writer.write(text, tr);
+        }
+        return missing;
+    }
+
+    private TranslationKey key(Language tLang, String text) {
+        return new TranslationKey(sLang.getLanguageCode(), tLang.getLanguageCode(), text);
+    }
+}
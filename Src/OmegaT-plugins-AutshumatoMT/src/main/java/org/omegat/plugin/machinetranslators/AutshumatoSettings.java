@@ -0,0 +1,322 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.File;
+import java.util.UUID;
+import org.omegat.util.Preferences;
+import org.omegat.util.StaticUtils;
+
+/**
+ * Preference keys and accessors for the Autshumato MT plugin.
+ * <p>All settings are stored in the OmegaT preferences and read on demand,
+ * so changes made while OmegaT is running take effect on the next request.
+ */
+final class AutshumatoSettings
+{
+    // Setting keys
+    static final String CACHE_SIZE = "autshumato_mt_cache_size";
+    static final String CACHE_TTL_MINUTES = "autshumato_mt_cache_ttl";
+    static final String STORE_ENABLED = "autshumato_mt_store";
+    static final String STORE_SIZE_MB = "autshumato_mt_store_size";
+    static final String PROJECT_CACHE = "autshumato_mt_project_cache";
+    static final String WRITER_ID = "autshumato_mt_writer_id";
+    static final String CHUNK_THREADS = "autshumato_mt_chunk_threads";
+    static final String BATCH_SIZE = "autshumato_mt_batch_size";
+    static final String BATCH_SEGMENTS = "autshumato_mt_batch_segments";
+    static final String PREFETCH_COUNT = "autshumato_mt_prefetch";
+    static final String CONNECT_TIMEOUT = "autshumato_mt_connect_timeout";
+    static final String READ_TIMEOUT = "autshumato_mt_read_timeout";
+    static final String HEDGING = "autshumato_mt_hedge";
+    static final String BREAKER_FAILURES = "autshumato_mt_breaker_failures";
+    static final String BREAKER_OPEN_SECONDS = "autshumato_mt_breaker_open";
+    static final String ENDPOINTS = "autshumato_mt_endpoints";
+    static final String REQUEST_RATE = "autshumato_mt_rate";
+    static final String KEEP_TAGS = "autshumato_mt_keep_tags";
+    static final String GLOSSARY = "autshumato_mt_glossary";
+    static final String NEAR_MATCH = "autshumato_mt_near_match";
+    static final String LOG_LEVEL = "autshumato_mt_log";
+    static final String LOG_SAMPLE = "autshumato_mt_log_sample";
+
+    // Defaults
+    static final int DEFAULT_CACHE_SIZE = 2000;
+    static final int DEFAULT_CACHE_TTL_MINUTES = 24 * 60;
+    static final int DEFAULT_STORE_SIZE_MB = 64;
+    static final int DEFAULT_CHUNK_THREADS = 4;
+    static final int DEFAULT_BATCH_SIZE = 4000;
+    static final int DEFAULT_BATCH_SEGMENTS = 50;
+    static final int DEFAULT_PREFETCH_COUNT = 3;
+    static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    static final int DEFAULT_READ_TIMEOUT = 30000;
+    static final int DEFAULT_BREAKER_FAILURES = 5;
+    static final int DEFAULT_BREAKER_OPEN_SECONDS = 30;
+    static final int DEFAULT_REQUEST_RATE = 10;
+    static final int DEFAULT_LOG_SAMPLE = 100;
+
+    /** Project cache values: only team projects, every project or never. */
+    static final String PROJECT_CACHE_TEAM = "team";
+    static final String PROJECT_CACHE_ALWAYS = "always";
+    static final String PROJECT_CACHE_NEVER = "never";
+
+    /** Glossary values: not used, missing terms logged, or terms replaced. */
+    static final String GLOSSARY_OFF = "off";
+    static final String GLOSSARY_CHECK = "check";
+    static final String GLOSSARY_ENFORCE = "enforce";
+
+    /** Folder in the OmegaT configuration folder that holds the MT stores. */
+    static final String STORE_DIR = "autshumato-mt";
+
+    private AutshumatoSettings() {
+    }
+
+    /**
+     * Maximum number of translations kept in the in-memory cache.
+     * @return the cache size, 0 disables the cache
+     */
+    static int getCacheSize() {
+        return getInt(CACHE_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Time after which a cached translation is no longer used.
+     * @return time to live in milliseconds, 0 if entries never expire
+     */
+    static long getCacheTtlMillis() {
+        return getInt(CACHE_TTL_MINUTES, DEFAULT_CACHE_TTL_MINUTES) * 60L * 1000L;
+    }
+
+    /**
+     * Whether translations are also kept on disk between sessions.
+     * @return true when the persistent store is used
+     */
+    static boolean isStoreEnabled() {
+        return Preferences.isPreferenceDefault(STORE_ENABLED, true);
+    }
+
+    /**
+     * Size a language pair store is compacted down to when it grows larger.
+     * @return the size cap in bytes
+     */
+    static long getStoreMaxBytes() {
+        return Math.max(1, getInt(STORE_SIZE_MB, DEFAULT_STORE_SIZE_MB)) * 1024L * 1024L;
+    }
+
+    /**
+     * Folder holding the persistent MT stores of all language pairs.
+     * @return the store folder in the OmegaT configuration folder
+     */
+    static File getStoreDir() {
+        return new File(StaticUtils.getConfigDir(), STORE_DIR);
+    }
+
+    /**
+     * Whether MT results are shared through the project folder.
+     * @param remoteProject whether the project is a team project
+     * @return true when the project MT cache should be used
+     */
+    static boolean isProjectCacheEnabled(boolean remoteProject) {
+        String mode = Preferences.getPreferenceDefault(PROJECT_CACHE, PROJECT_CACHE_TEAM);
+        if (PROJECT_CACHE_ALWAYS.equalsIgnoreCase(mode)) {
+            return true;
+        }
+        return remoteProject && !PROJECT_CACHE_NEVER.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Name of the project MT cache file this installation appends to: the
+     * name the user configured, or a random id created on first use so that
+     * it stays the same across sessions. The file is committed to the team's
+     * repository, so nothing about the computer goes into the name.
+     * @return a file name unique to this installation
+     */
+    static synchronized String getWriterId() {
+        String id = Preferences.getPreferenceDefault(WRITER_ID, "").trim();
+        if (id.isEmpty()) {
+            id = UUID.randomUUID().toString();
+            Preferences.setPreference(WRITER_ID, id);
+        }
+        return id.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    /**
+     * Number of chunks of one long segment that are translated at the same time.
+     * @return the concurrency cap per segment, at least 1
+     */
+    static int getChunkThreads() {
+        return Math.max(1, getInt(CHUNK_THREADS, DEFAULT_CHUNK_THREADS));
+    }
+
+    /**
+     * Maximum length of the combined text of a batch request.
+     * @return the batch payload size in characters
+     */
+    static int getBatchSize() {
+        return Math.max(1, getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Maximum number of segments packed into one batch request.
+     * @return the number of segments, at least 1
+     */
+    static int getBatchSegments() {
+        return Math.max(1, getInt(BATCH_SEGMENTS, DEFAULT_BATCH_SEGMENTS));
+    }
+
+    /**
+     * Number of segments after the active one translated in the background.
+     * @return the look-ahead, 0 disables prefetching
+     */
+    static int getPrefetchCount() {
+        return getInt(PREFETCH_COUNT, DEFAULT_PREFETCH_COUNT);
+    }
+
+    /**
+     * Time allowed for opening a connection to the service.
+     * @return the connect timeout in milliseconds, 0 waits forever
+     */
+    static int getConnectTimeout() {
+        return getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Time allowed for the service to answer once connected.
+     * @return the read timeout in milliseconds, 0 waits forever
+     */
+    static int getReadTimeout() {
+        return getInt(READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Whether a second request is sent when the first one is slower than
+     * 95% of the recent requests.
+     * @return true when hedged requests are enabled
+     */
+    static boolean isHedgingEnabled() {
+        return Preferences.isPreferenceDefault(HEDGING, false);
+    }
+
+    /**
+     * Whether OmegaT tags are sent to the service as placeholders and put
+     * back into the translation, instead of being removed.
+     * @return true when tags are kept
+     */
+    static boolean isKeepingTags() {
+        return Preferences.isPreferenceDefault(KEEP_TAGS, true);
+    }
+
+    /**
+     * How machine translations are checked against the project glossary.
+     * @return {@link #GLOSSARY_OFF}, {@link #GLOSSARY_CHECK} or
+     *         {@link #GLOSSARY_ENFORCE}
+     */
+    static String getGlossaryMode() {
+        String mode = Preferences.getPreferenceDefault(GLOSSARY, GLOSSARY_OFF).trim();
+        if (GLOSSARY_CHECK.equalsIgnoreCase(mode)) {
+            return GLOSSARY_CHECK;
+        }
+        return GLOSSARY_ENFORCE.equalsIgnoreCase(mode) ? GLOSSARY_ENFORCE : GLOSSARY_OFF;
+    }
+
+    /**
+     * Lowest similarity of an earlier translated text that is offered while
+     * the service has not answered yet.
+     * @return the share of words in common, from 0 to 1; 0 when near
+     *         matches are not offered
+     */
+    static double getNearMatchSimilarity() {
+        int percent = getInt(NEAR_MATCH, 0);
+        return Math.min(percent, 100) / 100.0;
+    }
+
+    /**
+     * Which requests to the service are written to the OmegaT log.
+     * @return {@link MTRequestLog#OFF}, {@link MTRequestLog#ERRORS},
+     *         {@link MTRequestLog#INFO} or {@link MTRequestLog#DEBUG}
+     */
+    static String getLogLevel() {
+        String level = Preferences.getPreferenceDefault(LOG_LEVEL, MTRequestLog.INFO).trim().toLowerCase();
+        switch (level) {
+            case MTRequestLog.OFF:
+            case MTRequestLog.ERRORS:
+            case MTRequestLog.DEBUG:
+                return level;
+            default:
+                return MTRequestLog.INFO;
+        }
+    }
+
+    /**
+     * At the info level, one in how many successful requests is logged.
+     * @return the sampling interval, at least 1
+     */
+    static int getLogSample() {
+        return Math.max(1, getInt(LOG_SAMPLE, DEFAULT_LOG_SAMPLE));
+    }
+
+    /**
+     * Number of consecutive failed requests after which requests to the
+     * service are paused.
+     * @return the number of failures, 0 when requests are never paused
+     */
+    static int getBreakerFailures() {
+        return getInt(BREAKER_FAILURES, DEFAULT_BREAKER_FAILURES);
+    }
+
+    /**
+     * Time requests are paused for after the service failed, before it is
+     * checked again. The time doubles while the check keeps failing.
+     * @return the time in milliseconds
+     */
+    static long getBreakerOpenMillis() {
+        return Math.max(1, getInt(BREAKER_OPEN_SECONDS, DEFAULT_BREAKER_OPEN_SECONDS)) * 1000L;
+    }
+
+    /**
+     * Addresses of the servers running the translate service, separated by
+     * spaces or commas.
+     * @param defaultUrl The public service, used when nothing is configured
+     * @return the configured addresses
+     */
+    static String getEndpoints(String defaultUrl) {
+        String value = Preferences.getPreferenceDefault(ENDPOINTS, defaultUrl).trim();
+        return value.isEmpty() ? defaultUrl : value;
+    }
+
+    /**
+     * Maximum number of requests per second sent to one endpoint.
+     * @return the rate, 0 when requests are not limited
+     */
+    static int getRequestRate() {
+        return getInt(REQUEST_RATE, DEFAULT_REQUEST_RATE);
+    }
+
+    /**
+     * Reads a non-negative integer preference, falling back to the default
+     * when the stored value is missing or invalid.
+     */
+    static int getInt(String key, int defaultValue) {
+        int value = Preferences.getPreferenceDefault(key, defaultValue);
+        return value < 0 ? defaultValue : value;
+    }
+}
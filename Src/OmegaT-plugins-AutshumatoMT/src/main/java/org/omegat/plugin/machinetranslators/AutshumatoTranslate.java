@@ -23,17 +23,42 @@
 
 package org.omegat.plugin.machinetranslators;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.lang.StringUtils;
 
+import org.omegat.core.Core;
+import org.omegat.core.CoreEvents;
+import org.omegat.core.data.ProjectProperties;
+import org.omegat.core.data.SourceTextEntry;
+import org.omegat.core.events.IApplicationEventListener;
+import org.omegat.core.events.IEntryEventListener;
+import org.omegat.core.events.IProjectEventListener;
 import org.omegat.core.machinetranslators.BaseTranslate;
 import org.omegat.util.Language;
 import org.omegat.util.Log;
-import org.omegat.util.PatternConsts;
-import org.omegat.util.WikiGet;
 
 /**
 * Connection to the Autshumato Machine Translation systems.
@@ -46,16 +71,115 @@ public class AutshumatoTranslate extends BaseTranslate
 {
    // Components 
    private static final String HOST_URL = "https://mt.nwu.ac.za/services/translate/ite";
-   private static final String MARK_BEG = "{\"_status\":200,\"_message\":\"";
-   private static final String MARK_END = "\"}";
-   private static final Pattern RE_UNICODE = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
-   private static final Pattern RE_HTML = Pattern.compile("&#([0-9]+);");
+   // Longest text the service accepts in one request
+   private static final int MAX_REQUEST_LENGTH = 5000;
+   // A hedged request is sent once the first is slower than this share of requests
+   private static final double HEDGE_PERCENTILE = 0.95;
+   // Times a request is queued again after the service said it is overloaded
+   private static final int MAX_OVERLOADED = 3;
+   // Time the MT pane waits for the service before a near match is offered
+   private static final long NEAR_MATCH_WAIT_MS = 500;
+   // Texts remembered to find those differing only in numbers or spacing
+   private static final int VARIANT_TEXTS = 20000;
+   // Translated texts kept for near matches
+   private static final int NEAR_MATCH_TEXTS = 20000;
+   // Stored translations read at a time when the near match index is filled
+   private static final int NEAR_MATCH_SLICE = 500;
+
+   // Runs the concurrent requests for the chunks of long segments
+   private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+       Thread t = new Thread(r, "Autshumato MT worker");
+       t.setDaemon(true);
+       return t;
+   });
+   // Runs translateAsync, prefetching and pre-translate batches, at most
+   // ASYNC_THREADS translations at a time
+   private static final int ASYNC_THREADS = 16;
+   private static final ExecutorService ASYNC = MTExecutors.newIoExecutor("Autshumato MT async", ASYNC_THREADS);
+   // Fails asynchronous translations that passed their deadline
+   private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+       Thread t = new Thread(r, "Autshumato MT deadlines");
+       t.setDaemon(true);
+       return t;
+   });
+
+   private final MTHttpClient http = new MTHttpClient();
+   // Latency of recent requests, for adaptive timeouts and hedging
+   private final LatencyTracker latency = new LatencyTracker();
+   // Servers running the service, each with its own circuit breaker
+   private final MTEndpoints endpoints = new MTEndpoints(http, HOST_URL);
+
+   // Requests currently sent to the service
+   private final SingleFlight<TranslationKey, String> inFlight = new SingleFlight<>();
+   // Translations the MT pane is waiting for, with their source text
+   private final Map<RequestScope, String> interactive = new ConcurrentHashMap<>();
+
+   // Translations already received from the service during this session
+   private final TranslationCache cache = new TranslationCache();
+   // Normalized keys of the texts translated, to the text that was sent. Not
+   // sized by the cache preferences: the translations of the texts may be
+   // on disk even when the memory cache is turned off
+   private final TranslationCache variants = new TranslationCache(VARIANT_TEXTS);
+   // Translated texts, to find those nearly the same as a new text
+   private final NearDuplicateIndex nearMatches = new NearDuplicateIndex(NEAR_MATCH_TEXTS);
+   // Translations kept on disk between sessions, one store per language pair
+   private final Map<String, DiskTranslationStore> stores = new HashMap<>();
+   // Translations shared with the team through the current project
+   private volatile ProjectTranslationCache projectCache;
+   // Glossary of the current project, to check translations against
+   private volatile ProjectGlossary glossary;
+   // Translates the segments after the active one in the background
+   private final MTPrefetcher prefetcher = new MTPrefetcher(this::prefetch);
 
    /** 
     * Creates a new instance of the AutshumatoTranslate. 
     */
    public AutshumatoTranslate() {
        Log.log("Initialised Autshumato-MT");
+
+       CoreEvents.registerProjectChangeListener(new IProjectEventListener() {
+           @Override
+           public void onProjectChanged(PROJECT_CHANGE_TYPE eventType) {
+               switch (eventType) {
+                   case CREATE:
+                   case LOAD:
+                       openProjectCache();
+                       openGlossary();
+                       loadNearMatches();
+                       break;
+                   case CLOSE:
+                       prefetcher.cancel();
+                       closeProjectCache();
+                       glossary = null;
+                       Log.log("Autshumato Translate cache: " + cache.getStatistics());
+                       break;
+                   default:
+                       break;
+               }
+           }
+       });
+
+       CoreEvents.registerEntryEventListener(new IEntryEventListener() {
+           @Override
+           public void onNewFile(String activeFileName) {}
+
+           @Override
+           public void onEntryActivated(SourceTextEntry newEntry) {
+               cancelInteractive(newEntry.getSrcText());
+               int count = isEnabled() ? AutshumatoSettings.getPrefetchCount() : 0;
+               prefetcher.entryActivated(newEntry, count);
+           }
+       });
+
+       CoreEvents.registerApplicationEventListener(new IApplicationEventListener() {
+           @Override
+           public void onApplicationStartup() {}
+
+           @Override
+           public void onApplicationShutdown() {
+               closeStores();
+           }
+       });
    }
    
    /**
@@ -88,16 +212,784 @@ public class AutshumatoTranslate extends BaseTranslate
    @Override
    protected String translate(Language sLang, Language tLang, String text) throws Exception
    {
-       // If the text is longer than 5000 characters only send 5000 characters to the translator
-       String trText = text.length() > 5000 ? text.substring(0, 4997) + "..." : text;
-       
-       // CLEANUP
-       // Remove the tags
-       Pattern tagPattern = PatternConsts.OMEGAT_TAG;
-       Matcher tagMatcher = tagPattern.matcher(trText);
-       if(tagMatcher.find()) {
-           trText = tagMatcher.replaceAll("");
+       // Figures, codes and addresses are their own translation
+       if (NoTranslateFilter.isUntranslatable(text)) {
+           return text;
+       }
+
+       // Background prefetching waits while the translator waits
+       prefetcher.interactiveStarted();
+       RequestScope scope = new RequestScope(MTPriority.INTERACTIVE);
+       interactive.put(scope, text);
+       try {
+           double minSimilarity = AutshumatoSettings.getNearMatchSimilarity();
+           if (minSimilarity > 0) {
+               return translateOrNearMatch(sLang, tLang, text, scope, minSimilarity);
+           }
+           return translateSegment(sLang, tLang, text, scope);
+       } finally {
+           interactive.remove(scope);
+           prefetcher.interactiveFinished();
+       }
+   }
+
+   /**
+    * Translate a segment without blocking, for the MT pane's priority.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Text to translate
+    * @return The translation, once received
+    * @see #translateAsync(Language, Language, String, MTPriority, long, TimeUnit)
+    */
+   public CompletableFuture<String> translateAsync(Language sLang, Language tLang, String text)
+   {
+       return translateAsync(sLang, tLang, text, MTPriority.INTERACTIVE, 0, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Translate a segment without blocking. The translation runs on the
+    * plugin's own bounded executor, on virtual threads where the Java
+    * runtime has them. Cancelling the returned future aborts the requests
+    * sent for it; when the deadline passes first, the future fails with a
+    * {@link TimeoutException} and the requests are aborted too.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Text to translate
+    * @param priority Priority of the requests against other MT traffic
+    * @param timeout Time allowed for the translation, 0 for no deadline
+    * @param unit Unit of the timeout
+    * @return The translation, once received
+    */
+   public CompletableFuture<String> translateAsync(Language sLang, Language tLang, String text,
+           MTPriority priority, long timeout, TimeUnit unit)
+   {
+       return submitAsync(priority, timeout, unit, scope -> translateSegment(sLang, tLang, text, scope));
+   }
+
+   /**
+    * Translate prepared segments without blocking, see {@link #translateBatch}
+    * and {@link #translateAsync(Language, Language, String, MTPriority, long, TimeUnit)}.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param segments Segments to translate
+    * @param priority Priority of the requests against other MT traffic
+    * @return The translations, in the same order as the segments; null for
+    *         a segment that could not be translated, whose failure is logged
+    */
+   CompletableFuture<List<String>> translatePreparedAsync(Language sLang, Language tLang,
+           List<PreparedSegment> segments, MTPriority priority)
+   {
+       return submitAsync(priority, 0, TimeUnit.MILLISECONDS,
+               scope -> translatePrepared(sLang, tLang, segments, scope, true));
+   }
+
+   /** Translation run by {@link #submitAsync}. */
+   private interface AsyncJob<T>
+   {
+       T run(RequestScope scope) throws Exception;
+   }
+
+   /**
+    * Run a translation on the asynchronous executor, with its deadline and
+    * cancellation
+    * @param <T> Result of the translation
+    * @param priority Priority of the requests against other MT traffic
+    * @param timeout Time allowed for the translation, 0 for no deadline
+    * @param unit Unit of the timeout
+    * @param job The translation, sending its requests in the given scope
+    * @return The result, once received
+    */
+   private <T> CompletableFuture<T> submitAsync(MTPriority priority, long timeout, TimeUnit unit, AsyncJob<T> job)
+   {
+       RequestScope scope = new RequestScope(priority);
+       CompletableFuture<T> result = new CompletableFuture<>();
+       Future<?> task = ASYNC.submit(() -> {
+           try {
+               result.complete(job.run(scope));
+           } catch (Throwable t) {
+               result.completeExceptionally(t);
+           }
+       });
+       String late = "No translation within " + unit.toMillis(timeout) + " ms";
+       ScheduledFuture<?> deadline = timeout <= 0 ? null
+               : DEADLINES.schedule(() -> result.completeExceptionally(new TimeoutException(late)), timeout, unit);
+       result.whenComplete((tr, ex) -> {
+           if (deadline != null) {
+               deadline.cancel(false);
+           }
+           if (ex != null) {
+               // Cancelled or too late: nobody waits for the requests any more
+               scope.cancel();
+               task.cancel(true);
+           }
+       });
+       return result;
+   }
+
+   /**
+    * Translate a segment, but when the service has not answered after a
+    * short wait, offer the translation of a nearly identical text instead.
+    * Its similarity is logged and not put in the text, which OmegaT inserts
+    * into the target segment as it is. The request goes on in the background
+    * and fills the caches, so the segment shows its own translation next time.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Text to translate
+    * @param scope Priority and cancellation of the requests
+    * @param minSimilarity Share of words a near match has in common with the text
+    * @return The translation, or the near match
+    * @throws Exception 
+    */
+   private String translateOrNearMatch(Language sLang, Language tLang, String text, RequestScope scope,
+           double minSimilarity) throws Exception
+   {
+       Future<String> fresh = WORKERS.submit(() -> translateSegment(sLang, tLang, text, scope));
+       try {
+           try {
+               return fresh.get(NEAR_MATCH_WAIT_MS, TimeUnit.MILLISECONDS);
+           } catch (TimeoutException ex) {
+               String near = nearMatch(sLang, tLang, text, minSimilarity);
+               return near != null ? near : fresh.get();
+           }
+       } catch (ExecutionException ex) {
+           Throwable cause = ex.getCause();
+           throw cause instanceof Exception ? (Exception) cause : ex;
+       } catch (InterruptedException ex) {
+           scope.cancel();
+           fresh.cancel(true);
+           throw ex;
+       }
+   }
+
+   /**
+    * The translation of the most similar text translated before, with the
+    * tags of this text
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Text to translate
+    * @param minSimilarity Share of words a near match has in common with the text
+    * @return The translation, or null when no text is similar enough
+    */
+   private String nearMatch(Language sLang, Language tLang, String text, double minSimilarity) {
+       TagPlaceholders tags = prepareTags(text);
+       String pair = pair(sLang.getLanguageCode(), tLang.getLanguageCode());
+       NearDuplicateIndex.Match near = nearMatches.find(pair, tags.getText(), minSimilarity);
+       if (near == null) {
+           return null;
+       }
+       Log.log("Autshumato Translate: offered a " + Math.round(near.similarity * 100)
+               + "% near match while the service is answering");
+       String tr = TagSpaceReconciler.reconcile(text, tags.restore(near.translation));
+       return checkGlossary(text, tr);
+   }
+
+   /**
+    * Translate a segment: send it with its tags as placeholders, put the
+    * tags back and check the glossary
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Text to translate
+    * @param scope Priority and cancellation of the requests
+    * @return The translation
+    * @throws Exception 
+    */
+   private String translateSegment(Language sLang, Language tLang, String text, RequestScope scope) throws Exception
+   {
+       if (NoTranslateFilter.isUntranslatable(text)) {
+           return text;
+       }
+       TagPlaceholders tags = prepareTags(text);
+       String tr = translateCleaned(sLang, tLang, tags.getText(), scope);
+       return checkGlossary(text, TagSpaceReconciler.reconcile(text, tags.restore(tr)));
+   }
+
+   /**
+    * Translate many segments at once. Segments that were not translated
+    * before and are short enough are packed into shared requests of at most
+    * the configured batch size; the others are translated one by one.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param texts Texts to translate
+    * @return The translations, in the same order as the texts
+    * @throws Exception The failure of the first segment that failed
+    */
+   public List<String> translateBatch(Language sLang, Language tLang, List<String> texts) throws Exception
+   {
+       return translatePrepared(sLang, tLang, PreparedSegment.prepareAll(texts));
+   }
+
+   /**
+    * Translate the same segments into several languages. The segments are
+    * prepared once, and the languages are translated at the same time.
+    * @param sLang Source language
+    * @param tLangs Target languages
+    * @param texts Texts to translate
+    * @return The translations for each language, in the same order as the texts
+    * @throws Exception The failure of the first language that failed
+    */
+   public Map<Language, List<String>> translateToAll(Language sLang, List<Language> tLangs, List<String> texts)
+           throws Exception
+   {
+       List<PreparedSegment> segments = PreparedSegment.prepareAll(texts);
+       return forEachLanguage(tLangs, tLang -> translatePrepared(sLang, tLang, segments));
+   }
+
+   /**
+    * Work done for one target language, see {@link #forEachLanguage}
+    * @param <T> Result for the language
+    */
+   interface LanguageJob<T>
+   {
+       T run(Language tLang) throws Exception;
+   }
+
+   /**
+    * Run a job for every target language, all languages at the same time,
+    * and wait for all of them
+    * @param <T> Result for each language
+    * @param tLangs Target languages
+    * @param job Translates into one language
+    * @return The result for each language, in the order of the languages
+    * @throws Exception The failure of the first language that failed
+    */
+   <T> Map<Language, T> forEachLanguage(List<Language> tLangs, LanguageJob<T> job) throws Exception
+   {
+       List<Callable<T>> tasks = new ArrayList<>(tLangs.size());
+       for (Language tLang : tLangs) {
+           tasks.add(() -> job.run(tLang));
+       }
+       List<T> results = runBounded(tasks, Math.max(1, tLangs.size()));
+       Map<Language, T> result = new LinkedHashMap<>();
+       for (int i = 0; i < tLangs.size(); i++) {
+           result.put(tLangs.get(i), results.get(i));
+       }
+       return result;
+   }
+
+   /**
+    * Translate prepared segments, see {@link #translateBatch}.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param segments Segments to translate
+    * @return The translations, in the same order as the segments
+    * @throws Exception The failure of the first segment that failed
+    */
+   List<String> translatePrepared(Language sLang, Language tLang, List<PreparedSegment> segments) throws Exception
+   {
+       return translatePrepared(sLang, tLang, segments, new RequestScope(MTPriority.BULK), false);
+   }
+
+   /**
+    * Translate prepared segments. The members of a batch request that
+    * failed are sent on their own, so a segment the service cannot
+    * translate does not fail the others of its batch.
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param segments Segments to translate
+    * @param scope Priority and cancellation of the requests
+    * @param partial Whether a segment that failed on its own is left null,
+    *        with its failure logged, instead of failing all segments
+    * @return The translations, in the same order as the segments
+    * @throws Exception The failure of the first segment that failed, or the
+    *         cancellation of the requests
+    */
+   private List<String> translatePrepared(Language sLang, Language tLang, List<PreparedSegment> segments,
+           RequestScope scope, boolean partial) throws Exception
+   {
+       int maxLength = Math.min(AutshumatoSettings.getBatchSize(), MAX_REQUEST_LENGTH);
+       String[] translations = new String[segments.size()];
+       // Segments packed into batches, with their claims in the in-flight table
+       List<String> packable = new ArrayList<>();
+       List<TranslationKey> packableKeys = new ArrayList<>();
+       List<CompletableFuture<String>> claims = new ArrayList<>();
+       // Only the first of the segments that differ in numbers or spacing is sent
+       Set<String> normalized = new HashSet<>();
+       for (int i = 0; i < segments.size(); i++) {
+           PreparedSegment segment = segments.get(i);
+           if (segment.isUntranslatable()) {
+               continue;
+           }
+           String trText = segment.getRequestText();
+           TranslationKey key = new TranslationKey(sLang.getLanguageCode(), tLang.getLanguageCode(), trText);
+           translations[i] = lookupVariant(key);
+           if (translations[i] == null && SegmentBatcher.canPack(trText, maxLength)
+                   && normalized.add(segment.getNormalizedKey())) {
+               // Duplicates and segments already requested elsewhere join
+               // the request in flight below instead
+               CompletableFuture<String> claim = inFlight.claim(key, scope.getPriority());
+               if (claim != null) {
+                   packable.add(trText);
+                   packableKeys.add(key);
+                   claims.add(claim);
+               }
+           }
+       }
+
+       // Send the packed requests, a batch that fails or does not come back
+       // with a line per segment is left to the single requests below. Each batch
+       // releases its claims as soon as it is done, so that a segment the
+       // translator opens meanwhile does not wait for the other batches.
+       try {
+           List<Callable<Void>> tasks = new ArrayList<>();
+           for (List<Integer> batch : SegmentBatcher.pack(packable, maxLength, AutshumatoSettings.getBatchSegments())) {
+               if (batch.size() < 2) {
+                   // Translated on its own below, nobody has to wait for it
+                   for (int p : batch) {
+                       inFlight.release(packableKeys.get(p), claims.get(p), null);
+                   }
+                   continue;
+               }
+               tasks.add(() -> {
+                   List<String> parts = null;
+                   try {
+                       String joined = SegmentBatcher.join(packable, batch);
+                       parts = SegmentBatcher.split(queryService(sLang, tLang, joined, scope), batch.size());
+                       if (parts == null) {
+                           Log.log("Autshumato Translate: batch of " + batch.size() + " segments came back with a different number of lines");
+                       }
+                   } catch (RequestCancelledException ex) {
+                       throw ex;
+                   } catch (IOException ex) {
+                       Log.log("Autshumato Translate: batch of " + batch.size() + " segments failed, sending them one by one: "
+                               + ex.getMessage());
+                   } finally {
+                       for (int k = 0; k < batch.size(); k++) {
+                           int p = batch.get(k);
+                           String tr = parts == null ? null : parts.get(k);
+                           if (tr != null) {
+                               store(packableKeys.get(p), tr);
+                           }
+                           inFlight.release(packableKeys.get(p), claims.get(p), tr);
+                       }
+                   }
+                   return null;
+               });
+           }
+           runBounded(tasks, AutshumatoSettings.getChunkThreads());
+       } finally {
+           // Batches that never ran, after another one failed, are
+           // translated on their own; releasing the others has no effect
+           for (int p = 0; p < claims.size(); p++) {
+               inFlight.release(packableKeys.get(p), claims.get(p), null);
+           }
+       }
+
+       List<String> result = new ArrayList<>(segments.size());
+       for (int i = 0; i < segments.size(); i++) {
+           PreparedSegment segment = segments.get(i);
+           String tr = translations[i];
+           if (tr == null && !segment.isUntranslatable()) {
+               // Stored by its batch, derived from a variant that was, or
+               // translated on its own now
+               try {
+                   tr = translateCleaned(sLang, tLang, segment.getRequestText(), scope);
+               } catch (RequestCancelledException | InterruptedException ex) {
+                   throw ex;
+               } catch (Exception ex) {
+                   if (!partial) {
+                       throw ex;
+                   }
+                   Log.log("Autshumato Translate: could not translate a segment, " + ex.getMessage());
+                   result.add(null);
+                   continue;
+               }
+           }
+           result.add(segment.restore(tr));
+       }
+       return result;
+   }
+
+   /**
+    * Cancel the translations the MT pane is waiting for, except those of
+    * the segment that became active, so their connections are free for it
+    * @param activeText Source text of the active segment
+    */
+   private void cancelInteractive(String activeText) {
+       for (Map.Entry<RequestScope, String> e : interactive.entrySet()) {
+           if (!e.getValue().equals(activeText)) {
+               e.getKey().cancel();
+           }
+       }
+   }
+
+   /**
+    * Translate a segment ahead of time, only to fill the caches
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param text Segment text
+    * @return The translation, cancelling it aborts the requests
+    */
+   private CompletableFuture<String> prefetch(Language sLang, Language tLang, String text) {
+       return translateAsync(sLang, tLang, text, MTPriority.PREFETCH, 0, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Replace the OmegaT tags with placeholders before the text is sent, or
+    * remove them when placeholders are turned off
+    * @param text Segment text
+    * @return The text to send, which restores the tags in its translation
+    */
+   private static TagPlaceholders prepareTags(String text) {
+       return TagPlaceholders.prepare(text, AutshumatoSettings.isKeepingTags());
+   }
+
+   /**
+    * Translate text without tags, in sentence chunks when it is longer than
+    * the service accepts
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param trText Text with the tags removed
+    * @param scope Priority and cancellation of the requests
+    * @return The translation
+    * @throws Exception 
+    */
+   private String translateCleaned(Language sLang, Language tLang, String trText, RequestScope scope) throws Exception {
+       if (trText.length() > MAX_REQUEST_LENGTH) {
+           SentenceChunker chunker = SentenceChunker.split(sLang, trText, MAX_REQUEST_LENGTH);
+           return chunker.join(translateChunks(sLang, tLang, chunker.getChunks(), scope));
+       }
+       return translateText(sLang, tLang, trText, scope);
+   }
+
+   /**
+    * Translate cleaned text that fits in a single request, reusing a
+    * previous answer for the same request when we have one
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param trText Text with the tags removed
+    * @param scope Priority and cancellation of the request
+    * @return The translation
+    * @throws Exception 
+    */
+   private String translateText(Language sLang, Language tLang, String trText, RequestScope scope) throws Exception {
+       TranslationKey key = new TranslationKey(sLang.getLanguageCode(), tLang.getLanguageCode(), trText);
+       String tr = lookupVariant(key);
+       if (tr == null) {
+           // Identical requests made at the same time share one call
+           tr = inFlight.run(key, scope, () -> {
+               // Stored by a request that finished since the lookup above
+               String received = cache.peek(key);
+               if (received == null) {
+                   received = SegmentBatcher.normalize(queryService(sLang, tLang, trText, scope));
+                   store(key, received);
+               }
+               return received;
+           });
+       }
+       return tr;
+   }
+
+   /**
+    * Translate the chunks of a long segment concurrently
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param chunks Chunks in text order
+    * @param scope Priority and cancellation of the requests
+    * @return The translations in the same order as the chunks
+    * @throws Exception The failure of the first chunk that failed
+    */
+   private List<String> translateChunks(Language sLang, Language tLang, List<String> chunks, RequestScope scope)
+           throws Exception {
+       List<Callable<String>> tasks = new ArrayList<>(chunks.size());
+       for (String chunk : chunks) {
+           tasks.add(() -> translateText(sLang, tLang, chunk, scope));
+       }
+       return runBounded(tasks, AutshumatoSettings.getChunkThreads());
+   }
+
+   /**
+    * Run tasks on the worker pool with at most the given number running at
+    * the same time, and wait for all of them
+    * @param tasks Tasks to run
+    * @param limit Maximum number of tasks running at the same time
+    * @return The results in the same order as the tasks
+    * @throws Exception The failure of the first task that failed
+    */
+   private static <T> List<T> runBounded(List<Callable<T>> tasks, int limit) throws Exception {
+       Semaphore permits = new Semaphore(limit);
+       List<Future<T>> futures = new ArrayList<>(tasks.size());
+       try {
+           for (Callable<T> task : tasks) {
+               permits.acquire();
+               futures.add(WORKERS.submit(() -> {
+                   try {
+                       return task.call();
+                   } finally {
+                       permits.release();
+                   }
+               }));
+           }
+           List<T> result = new ArrayList<>(tasks.size());
+           for (Future<T> f : futures) {
+               try {
+                   result.add(f.get());
+               } catch (ExecutionException ex) {
+                   Throwable cause = ex.getCause();
+                   throw cause instanceof Exception ? (Exception) cause : ex;
+               }
+           }
+           return result;
+       } finally {
+           // Nothing left to wait for after a failure or interruption
+           for (Future<T> f : futures) {
+               f.cancel(true);
+           }
+       }
+   }
+
+   /**
+    * Look up a translation, or derive it from the translation of a text
+    * that only differs in its numbers or spacing. Derived translations are
+    * only kept in memory.
+    * @param key Request key
+    * @return The translation, or null
+    */
+   private String lookupVariant(TranslationKey key) {
+       String tr = lookup(key);
+       if (tr != null) {
+           return tr;
+       }
+       String known = variants.get(normalize(key));
+       if (known == null || known.equals(key.getText())) {
+           return null;
+       }
+       String knownTr = lookup(new TranslationKey(key.getSource(), key.getTarget(), known));
+       if (knownTr != null) {
+           tr = SegmentNormalizer.restore(known, knownTr, key.getText());
+       }
+       if (tr != null) {
+           cache.put(key, tr);
+       }
+       return tr;
+   }
+
+   /**
+    * Key of the variants of a request
+    * @param key Request key
+    * @return The key with the normalized text
+    */
+   private static TranslationKey normalize(TranslationKey key) {
+       return new TranslationKey(key.getSource(), key.getTarget(), SegmentNormalizer.key(key.getText()));
+   }
+
+   /**
+    * Look up a previous translation, first in memory and then on disk
+    * @param key Request key
+    * @return The translation or null if the text was not translated before
+    */
+   private String lookup(TranslationKey key) {
+       String tr = cache.get(key);
+       if (tr != null) {
+           return tr;
+       }
+       ProjectTranslationCache shared = projectCache;
+       if (shared != null) {
+           tr = shared.get(key);
+       }
+       if (tr == null) {
+           // Not shared with the team: the disk store holds the translator's
+           // own history, also from other projects
+           DiskTranslationStore diskStore = getStore(key);
+           if (diskStore != null) {
+               tr = diskStore.get(key.getText());
+           }
+       }
+       if (tr != null) {
+           // Not indexed for near matches here: translations are indexed when
+           // they are received, and those on disk or shared through the
+           // project when the project is loaded
+           cache.put(key, tr);
+       }
+       return tr;
+   }
+
+   /**
+    * Keep a translation received from the service in memory, on disk and
+    * in the project shared with the team
+    * @param key Request key
+    * @param tr Translation received from the service
+    */
+   private void store(TranslationKey key, String tr) {
+       cache.put(key, tr);
+       variants.put(normalize(key), key.getText());
+       addNearMatch(key, tr);
+       ProjectTranslationCache shared = projectCache;
+       if (shared != null) {
+           shared.put(key, tr);
+       }
+       DiskTranslationStore diskStore = getStore(key);
+       if (diskStore != null) {
+           try {
+               diskStore.put(key.getText(), tr);
+           } catch (IOException ex) {
+               Log.log("Autshumato Translate: could not store the translation");
+               Log.log(ex);
+           }
+       }
+   }
+
+   /**
+    * Keep a translation for near matches, when they are offered
+    * @param key Request key
+    * @param tr Its translation
+    */
+   private void addNearMatch(TranslationKey key, String tr) {
+       if (AutshumatoSettings.getNearMatchSimilarity() > 0) {
+           nearMatches.add(pair(key.getSource(), key.getTarget()), key.getText(), tr);
+       }
+   }
+
+   /**
+    * Fill the near match index, in the background, with the translations
+    * stored on disk for the language pair of the project that was opened,
+    * and those the team shared through the project
+    */
+   private void loadNearMatches() {
+       if (AutshumatoSettings.getNearMatchSimilarity() <= 0) {
+           return;
+       }
+       ProjectProperties props = Core.getProject().getProjectProperties();
+       String source = props.getSourceLanguage().getLanguageCode();
+       String target = props.getTargetLanguage().getLanguageCode();
+       ProjectTranslationCache shared = projectCache;
+       WORKERS.execute(() -> {
+           String pair = pair(source, target);
+           DiskTranslationStore diskStore = getStore(new TranslationKey(source, target, ""));
+           if (diskStore != null) {
+               DiskTranslationStore.Cursor cursor = new DiskTranslationStore.Cursor();
+               while (Core.getProject().isProjectLoaded()
+                       && diskStore.read(cursor, NEAR_MATCH_SLICE, (text, tr) -> nearMatches.add(pair, text, tr))) {
+                   Thread.yield();
+               }
+           }
+           // Last, so the team's translations are the last to be evicted
+           if (shared != null) {
+               shared.forEach((key, tr) -> {
+                   if (key.getSource().equals(source) && key.getTarget().equals(target)) {
+                       nearMatches.add(pair, key.getText(), tr);
+                   }
+               });
+           }
+           Log.log("Autshumato Translate: " + nearMatches.size() + " texts indexed for near matches");
+       });
+   }
+
+   private static String pair(String source, String target) {
+       return source + "-" + target;
+   }
+
+   /**
+    * Get the persistent store of the language pair, opening it when needed
+    * @param key Request key
+    * @return The store, or null if it is disabled or could not be opened
+    */
+   private synchronized DiskTranslationStore getStore(TranslationKey key) {
+       if (!AutshumatoSettings.isStoreEnabled()) {
+           return null;
+       }
+       String pair = pair(key.getSource(), key.getTarget());
+       if (!stores.containsKey(pair)) {
+           DiskTranslationStore diskStore = null;
+           try {
+               diskStore = DiskTranslationStore.open(AutshumatoSettings.getStoreDir(),
+                       key.getSource(), key.getTarget(), AutshumatoSettings.getStoreMaxBytes());
+           } catch (IOException ex) {
+               // Remember the failure so every segment does not retry it
+               Log.log("Autshumato Translate: could not open the store for " + pair);
+               Log.log(ex);
+           }
+           stores.put(pair, diskStore);
+       }
+       return stores.get(pair);
+   }
+
+   /**
+    * Load the MT results shared through the project that was just opened
+    */
+   private void openProjectCache() {
+       closeProjectCache();
+       if (!AutshumatoSettings.isProjectCacheEnabled(Core.getProject().isRemoteProject())) {
+           return;
+       }
+       File internal = new File(Core.getProject().getProjectProperties().getProjectInternal());
+       ProjectTranslationCache shared = ProjectTranslationCache.load(internal, AutshumatoSettings.getWriterId());
+       Log.log("Autshumato Translate: loaded " + shared.size() + " shared project translations");
+       if (Core.getProject().isRemoteProject()) {
+           Log.log("Autshumato Translate: OmegaT does not commit " + shared.getOwnFile()
+                   + ", commit it to the project repository to share its translations");
+       }
+       projectCache = shared;
+   }
+
+   /**
+    * Read the glossary of the project that was just opened, in the
+    * background, when translations are checked against it
+    */
+   private void openGlossary() {
+       glossary = null;
+       if (AutshumatoSettings.GLOSSARY_OFF.equals(AutshumatoSettings.getGlossaryMode())) {
+           return;
+       }
+       ProjectProperties props = Core.getProject().getProjectProperties();
+       ProjectGlossary projectGlossary = new ProjectGlossary(new File(props.getGlossaryRoot()),
+               new File(props.getWriteableGlossary()));
+       glossary = projectGlossary;
+       projectGlossary.refresh();
+   }
+
+   /**
+    * Check a translation against the project glossary, as configured
+    * @param text Source text
+    * @param tr Translation of the text
+    * @return The translation, with its glossary terms checked or replaced
+    */
+   private String checkGlossary(String text, String tr) {
+       String mode = AutshumatoSettings.getGlossaryMode();
+       if (AutshumatoSettings.GLOSSARY_OFF.equals(mode)) {
+           return tr;
+       }
+       ProjectGlossary projectGlossary = glossary;
+       if (projectGlossary == null && Core.getProject().isProjectLoaded()) {
+           // Turned on while the project was open
+           openGlossary();
+           projectGlossary = glossary;
+       }
+       if (projectGlossary == null) {
+           return tr;
        }
+       return GlossaryConstraints.apply(text, tr, projectGlossary.getMatcher(),
+               AutshumatoSettings.GLOSSARY_ENFORCE.equals(mode));
+   }
+
+   private void closeProjectCache() {
+       ProjectTranslationCache shared = projectCache;
+       projectCache = null;
+       if (shared != null) {
+           shared.close();
+       }
+   }
+
+   private synchronized void closeStores() {
+       for (DiskTranslationStore diskStore : stores.values()) {
+           if (diskStore != null) {
+               diskStore.close();
+           }
+       }
+       stores.clear();
+   }
+
+   /**
+    * Query the Autshumato MT service for the translation of the cleaned text
+    * @param sLang Source language
+    * @param tLang Target language
+    * @param trText Text with the tags removed
+    * @return The translation received from the service
+    * @param scope Priority and cancellation of the request
+    * @throws Exception 
+    */
+   private String queryService(Language sLang, Language tLang, String trText, RequestScope scope) throws Exception
+   {
+       scope.checkCancelled();
 
        // Insert the text in the Parameters map
        Map<String, String> p = new TreeMap<>();
@@ -107,72 +999,94 @@ public class AutshumatoTranslate extends BaseTranslate
        
        // Additional headers
        Map<String, String> h = new TreeMap<>();
-       p.put("Accept-Charset", "UTF-8");
+       h.put("Accept-Charset", "UTF-8");
 
-       // Query the host for the translation
-       String v = WikiGet.get(HOST_URL, p, h);
-       
-       Log.log("Autshumato Translate");
-       Log.log("Source: " + sLang.getLanguageCode());
-       Log.log("Target: " + tLang.getLanguageCode());
-       Log.log("Text: " + trText);
-       Log.log("Return: " + v);
-       
-       while (true)  {
-           Matcher m = RE_UNICODE.matcher(v);
-           if (!m.find()) {
-               break;
-           }
-           String g = m.group();
-           char c = (char) Integer.parseInt(m.group(1), 16);
-           v = v.replace(g, Character.toString(c));
+       // Query the host and read the translation from the response envelope,
+       // with a second request when the first one is slower than usual
+       int readTimeout = latency.timeout(AutshumatoSettings.getReadTimeout());
+       long hedgeDelay = AutshumatoSettings.isHedgingEnabled() ? latency.percentile(HEDGE_PERCENTILE) : -1;
+       String pair = pair(sLang.getLanguageCode(), tLang.getLanguageCode());
+       long start = System.nanoTime();
+       String tr;
+       try {
+           tr = HedgedRequest.run(WORKERS, scope, call -> send(p, h, call, scope.getPriority()),
+                   readTimeout, hedgeDelay);
+       } catch (Exception ex) {
+           MTRequestLog.request(pair, scope.getPriority(), trText, null, start, ex);
+           throw ex;
        }
-       
-       // Replace special HTML chars
-       v = v.replace("&quot;", "&#34;");
-       v = v.replace("&nbsp;", "&#160;");
-       v = v.replace("&amp;", "&#38;");
-       
-       while (true) {
-           Matcher m = RE_HTML.matcher(v);
-           if (!m.find()) {
-               break;
-           }
-           String g = m.group();
-           char c = (char) Integer.parseInt(m.group(1));
-           v = v.replace(g, Character.toString(c));
-       }
-
-       // Only get the translation from the message received
-       int beg = v.indexOf(MARK_BEG) + MARK_BEG.length();
-       int end = v.indexOf(MARK_END, beg);
-       String tr = v.substring(beg, end);
+       MTRequestLog.request(pair, scope.getPriority(), trText, tr, start, null);
 
-       tr = StringUtils.stripEnd(tr, "\n");
+       return StringUtils.stripEnd(tr, "\n");
+   }
 
-       // Clean additional spaces
-       // Spaces after
-       Matcher tag = PatternConsts.OMEGAT_TAG_SPACE.matcher(tr);
-       while (tag.find()) {
-           String searchTag = tag.group();
-           if (!text.contains(searchTag)) { 
-               // The tag didn't appear with a
-               // trailing space in the source text
-               String replacement = searchTag.substring(0, searchTag.length() - 1);
-               tr = tr.replace(searchTag, replacement);
+   /**
+    * Sends one request, to the endpoint chosen by the load balancer, and
+    * fails over to the other endpoints while the service cannot be reached.
+    * An endpoint that answers it is overloaded is paused and the request
+    * queued again, a few times at most.
+    * @param p Query parameters
+    * @param h Request headers
+    * @param call Handle to abort the request
+    * @param priority Priority of the request in the endpoint queues
+    * @return The translation received from the service
+    * @throws Exception the last failure when no endpoint answered
+    */
+   private String send(Map<String, String> p, Map<String, String> h, MTHttpClient.Call call, MTPriority priority)
+           throws Exception
+   {
+       List<MTEndpoint> tried = new ArrayList<>();
+       Exception failure = null;
+       int overloaded = 0;
+       MTEndpoint endpoint;
+       while ((endpoint = endpoints.select(tried)) != null) {
+           if (call.isCancelled()) {
+               throw new RequestCancelledException();
+           }
+           tried.add(endpoint);
+           if (failure != null && endpoint.getPause() > call.getReadTimeout()) {
+               // Paused for longer than the request would wait for an answer
+               continue;
+           }
+           endpoint.start(priority, call);
+           long start = System.nanoTime();
+           try {
+               String received = http.get(endpoint.getUrl(), p, h, MTResponseReader::readTranslation, call);
+               long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+               latency.record(millis);
+               endpoint.succeeded(millis);
+               return received;
+           } catch (Exception ex) {
+               endpoint.failed(ex);
+               if (ex instanceof SocketTimeoutException) {
+                   latency.record(call.getReadTimeout());
+               }
+               if (isOverloaded(ex)) {
+                   endpoint.overloaded(call.getRetryAfter());
+                   if (++overloaded > MAX_OVERLOADED) {
+                       throw ex;
+                   }
+                   // The paused endpoint may be chosen again once the others are busier
+                   tried.remove(endpoint);
+               } else if (!CircuitBreaker.isServiceFailure(ex)) {
+                   throw ex;
+               }
+               failure = ex;
            }
        }
+       throw failure != null ? failure : endpoints.rejected();
+   }
 
-       // Spaces before
-       tag = PatternConsts.SPACE_OMEGAT_TAG.matcher(tr);
-       while (tag.find()) {
-           String searchTag = tag.group();
-           if (!text.contains(searchTag)) { // The tag didn't appear with a
-               // leading space in the source text
-               String replacement = searchTag.substring(1, searchTag.length());
-               tr = tr.replace(searchTag, replacement);
-           }
+   /**
+    * Whether the service refused a request because it has too much to do
+    * @param ex Failure of the request
+    * @return true for the 429 and 503 statuses
+    */
+   private static boolean isOverloaded(Exception ex) {
+       if (!(ex instanceof MTServiceException)) {
+           return false;
        }
-       return tr;
-   }   
+       int status = ((MTServiceException) ex).getStatus();
+       return status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE;
+   }
 }
@@ -0,0 +1,185 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.omegat.util.Log;
+
+/**
+ * Circuit breaker in front of the MT service.
+ * <p>The breaker is closed while the service works. After a number of
+ * consecutive failures it opens, and requests fail at once instead of each
+ * waiting for a timeout. While open, a background probe checks the service
+ * after a delay: during the probe the breaker is half-open and still
+ * rejects requests. A successful probe closes the breaker, a failed one
+ * opens it again with twice the delay, up to {@link #MAX_OPEN_MILLIS}.
+ */
+class CircuitBreaker
+{
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Checks whether the service answers again.
+     */
+    interface Probe
+    {
+        void run() throws Exception;
+    }
+
+    private static final long MAX_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ScheduledExecutorService PROBES = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "Autshumato MT probe");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final Probe probe;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openMillis;
+    private long retryAt;
+
+    /**
+     * Creates a closed breaker.
+     * @param name Name of the service, for the log
+     * @param probe Checks the service while the breaker is open
+     */
+    CircuitBreaker(String name, Probe probe) {
+        this.name = name;
+        this.probe = probe;
+    }
+
+    /**
+     * Whether a request may be sent. Always true when the breaker is
+     * disabled in the settings.
+     * @return true when the breaker is closed
+     */
+    synchronized boolean allowRequest() {
+        return state == State.CLOSED || AutshumatoSettings.getBreakerFailures() == 0;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until the service is checked again.
+     * @return the delay, 0 when the breaker is not open
+     */
+    synchronized long getRetryDelay() {
+        return state == State.OPEN ? Math.max(0, retryAt - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Records a request that got an answer from the service.
+     */
+    synchronized void onSuccess() {
+        failures = 0;
+    }
+
+    /**
+     * Records a failed request. Only failures that say the service is
+     * unreachable or broken count: timeouts, connection errors and 5xx
+     * statuses. Requests refused for their content and cancelled requests
+     * do not.
+     * @param failure The exception the request failed with
+     */
+    void onFailure(Throwable failure) {
+        if (!isServiceFailure(failure)) {
+            return;
+        }
+        int threshold = AutshumatoSettings.getBreakerFailures();
+        synchronized (this) {
+            if (threshold == 0 || state != State.CLOSED || ++failures < threshold) {
+                return;
+            }
+            openMillis = AutshumatoSettings.getBreakerOpenMillis();
+            open(failure);
+        }
+    }
+
+    /**
+     * Exception for a request rejected by the open breaker.
+     * @return the exception to throw
+     */
+    MTServiceException rejected() {
+        long seconds = (getRetryDelay() + 999) / 1000;
+        return new MTServiceException(MTServiceException.SERVICE_UNAVAILABLE,
+                name + " is not reachable, trying again in " + seconds + " s");
+    }
+
+    /**
+     * Whether a failure says the service is unreachable or broken, rather
+     * than refusing the request or the request being cancelled.
+     * @param failure The exception a request failed with
+     * @return true for timeouts, connection errors and 5xx statuses
+     */
+    static boolean isServiceFailure(Throwable failure) {
+        if (failure instanceof MTServiceException) {
+            return ((MTServiceException) failure).getStatus() >= 500;
+        }
+        if (failure instanceof InterruptedIOException) {
+            return failure instanceof SocketTimeoutException;
+        }
+        return !(failure instanceof InterruptedException);
+    }
+
+    // Called with the lock held
+    private void open(Throwable cause) {
+        state = State.OPEN;
+        retryAt = System.currentTimeMillis() + openMillis;
+        Log.log("Autshumato Translate: " + name + " failed (" + cause + "), pausing requests for "
+                + openMillis / 1000 + " s");
+        PROBES.schedule(this::runProbe, openMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runProbe() {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.HALF_OPEN;
+        }
+        try {
+            probe.run();
+            synchronized (this) {
+                state = State.CLOSED;
+                failures = 0;
+            }
+            Log.log("Autshumato Translate: " + name + " is reachable again");
+        } catch (Throwable ex) {
+            synchronized (this) {
+                openMillis = Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+                open(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,840 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import org.omegat.util.Log;
+
+/**
+ * Persistent store of Autshumato MT results for one language pair.
+ * <p>Translations are appended to a log file. Each record carries a CRC so a
+ * record that was only partially written, or damaged later, is skipped when
+ * the store is opened. A compacted hash index over the log is written during
+ * compaction and memory-mapped, together with the part of the log it covers,
+ * so that lookups of older translations do not touch the disk. Records
+ * appended after the last compaction are tracked in memory until the next
+ * compaction folds them into the index.
+ * <p>Compaction runs in the background once superseded records take up a
+ * large enough share of the log, or when the log grows beyond the size cap. It keeps the
+ * newest record for every text and drops the oldest translations when the
+ * store is still too large. Each compaction writes a new generation of the
+ * files instead of replacing the mapped ones, because mapped files cannot be
+ * replaced on Windows.
+ */
+class DiskTranslationStore implements Closeable
+{
+    private static final String LOG_EXT = ".log";
+    private static final String INDEX_EXT = ".idx";
+    private static final String TMP_EXT = ".tmp";
+
+    private static final int RECORD_MAGIC = 0x41544D52;   // "ATMR"
+    private static final long INDEX_MAGIC = 0x4154534D49445831L;    // "ATSMIDX1"
+    // magic, key length, value length, CRC
+    private static final int RECORD_HEADER = 16;
+    // magic, covered log length, slot count, entry count
+    private static final int INDEX_HEADER = 24;
+    // key hash, record offset + 1 (0 marks an empty slot)
+    private static final int SLOT_SIZE = 12;
+    private static final int MAX_FIELD_LENGTH = 1 << 20;
+    private static final int RESYNC_CHUNK = 64 * 1024;
+
+    /** Compact once superseded records take up this share of the live ones. */
+    private static final double COMPACT_DEAD_RATIO = 0.5;
+    /** Less dead space than this is not worth rewriting the log for. */
+    private static final long COMPACT_MIN_DEAD_BYTES = 64 * 1024;
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Autshumato MT store compaction");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File dir;
+    private final String name;
+    private final long maxBytes;
+
+    private long generation;
+    private RandomAccessFile logFile;
+    private FileChannel log;
+    private long logLength;
+    // Log records covered by the mapped index
+    private MappedByteBuffer mappedLog;
+    private MappedByteBuffer index;
+    private int slotCount;
+    // Records appended after the index was written
+    private final Map<String, Long> tail = new HashMap<>();
+    // Bytes in the log that belong to superseded or damaged records
+    private long deadBytes;
+    private boolean compactionPending;
+    private boolean closed;
+
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(RECORD_HEADER);
+    // Held for a whole compaction, two at once would write the same files
+    private final Object compaction = new Object();
+
+    private DiskTranslationStore(File dir, String name, long maxBytes) {
+        this.dir = dir;
+        this.name = name;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens, and creates when needed, the store for a language pair.
+     * @param dir Directory holding the stores of all language pairs
+     * @param source Source language code
+     * @param target Target language code
+     * @param maxBytes Size the log is compacted down to when it grows larger
+     * @return the opened store
+     * @throws IOException when the files cannot be created or opened
+     */
+    static DiskTranslationStore open(File dir, String source, String target, long maxBytes)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String name = (source + "-" + target).replaceAll("[^A-Za-z0-9_-]", "_");
+        DiskTranslationStore store = new DiskTranslationStore(dir, name, maxBytes);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException ex) {
+            store.closeFiles();
+            throw ex;
+        }
+        return store;
+    }
+
+    /**
+     * Looks up the stored translation of a text.
+     * @param text Cleaned text as sent to the service
+     * @return the translation or null when the text is not in the store
+     */
+    synchronized String get(String text) {
+        if (closed) {
+            return null;
+        }
+        try {
+            Long offset = tail.get(text);
+            if (offset != null) {
+                return readValue(offset, text);
+            }
+            return lookupIndex(text);
+        } catch (IOException | RuntimeException ex) {
+            // Damaged record or index, rewrite the store without it
+            Log.log("Autshumato MT store " + name + ": lookup failed, " + ex);
+            scheduleCompaction();
+            return null;
+        }
+    }
+
+    /**
+     * Appends a translation to the log.
+     * @param text Cleaned text as sent to the service
+     * @param translation Translation received from the service
+     * @throws IOException when the record could not be written
+     */
+    synchronized void put(String text, String translation) throws IOException {
+        if (closed) {
+            return;
+        }
+        byte[] key = text.getBytes(StandardCharsets.UTF_8);
+        byte[] value = translation.getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_FIELD_LENGTH || value.length > MAX_FIELD_LENGTH) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + key.length + value.length);
+        record.putInt(RECORD_MAGIC).putInt(key.length).putInt(value.length)
+                .putInt(checksum(key, value)).put(key).put(value);
+        record.flip();
+        long offset = logLength;
+        while (record.hasRemaining()) {
+            log.write(record, logLength + record.position());
+        }
+        logLength += record.limit();
+
+        Long previous = tail.put(text, offset);
+        if (previous == null) {
+            int slot = lookupSlot(text);
+            previous = slot < 0 ? null : readSlotOffset(slot);
+        }
+        if (previous != null) {
+            deadBytes += recordLength(previous);
+        }
+        if (logLength > maxBytes || (deadBytes >= COMPACT_MIN_DEAD_BYTES
+                && deadBytes >= (logLength - deadBytes) * COMPACT_DEAD_RATIO)) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Reads the stored translations in the order they were stored, a slice
+     * at a time so that lookups are not held up while the whole log is read.
+     * Superseded translations are read too, before the ones replacing them.
+     * @param cursor Position in the log, new for the first slice
+     * @param maxRecords Number of records to read in this slice
+     * @param action Receives each text and its translation
+     * @return true when there are more records, false at the end of the log
+     *         or when the log was compacted since the first slice
+     */
+    synchronized boolean read(Cursor cursor, int maxRecords, BiConsumer<String, String> action) {
+        if (closed) {
+            return false;
+        }
+        if (cursor.generation < 0) {
+            cursor.generation = generation;
+        } else if (cursor.generation != generation) {
+            return false;
+        }
+        try {
+            for (int n = 0; n < maxRecords && cursor.position < logLength; n++) {
+                Record r = readRecord(cursor.position);
+                if (r == null) {
+                    cursor.position = resync(cursor.position + 1);
+                    if (cursor.position < 0) {
+                        return false;
+                    }
+                    continue;
+                }
+                action.accept(r.key, r.value);
+                cursor.position += r.length;
+            }
+        } catch (IOException ex) {
+            Log.log("Autshumato MT store " + name + ": could not read the log, " + ex);
+            return false;
+        }
+        return cursor.position < logLength;
+    }
+
+    /** Flushes the log and releases the files. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeFiles();
+    }
+
+    // Finds the current generation, reads its index and recovers the tail
+    private void load() throws IOException {
+        generation = findGeneration();
+        File logPath = file(generation, LOG_EXT);
+        logFile = new RandomAccessFile(logPath, "rw");
+        log = logFile.getChannel();
+        logLength = log.size();
+
+        long covered = readIndexHeader(file(generation, INDEX_EXT));
+        if (covered < 0 || covered > logLength) {
+            // No usable index, every record is recovered from the log
+            covered = 0;
+            slotCount = 0;
+        }
+        long end = scanTail(covered);
+        if (end < logLength) {
+            Log.log("Autshumato MT store " + name + ": dropping " + (logLength - end)
+                    + " damaged bytes at the end of the log");
+            log.truncate(end);
+            logLength = end;
+        }
+        if (slotCount > 0) {
+            mappedLog = log.map(FileChannel.MapMode.READ_ONLY, 0, covered);
+            try (RandomAccessFile idx = new RandomAccessFile(file(generation, INDEX_EXT), "r")) {
+                index = idx.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        INDEX_HEADER + (long) slotCount * SLOT_SIZE);
+            }
+        }
+        deleteOldGenerations();
+        if (covered == 0 && !tail.isEmpty()) {
+            scheduleCompaction();
+        }
+    }
+
+    // Highest generation that has a complete log file
+    private long findGeneration() {
+        long best = 0;
+        File[] logs = dir.listFiles(logFilter());
+        if (logs != null) {
+            for (File f : logs) {
+                long gen = parseGeneration(f.getName());
+                if (gen > best) {
+                    best = gen;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void deleteOldGenerations() {
+        File[] files = dir.listFiles(f -> f.getName().startsWith(name + "."));
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String fn = f.getName();
+            if (fn.endsWith(TMP_EXT) || parseGeneration(fn) < generation) {
+                // Still mapped by an earlier session on Windows, retried on the next open
+                if (!f.delete()) {
+                    f.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private FileFilter logFilter() {
+        return f -> f.getName().startsWith(name + ".") && f.getName().endsWith(LOG_EXT);
+    }
+
+    // Parses "<name>.<generation>.<ext>", returns -1 for other files
+    private long parseGeneration(String fileName) {
+        int start = name.length() + 1;
+        int end = fileName.indexOf('.', start);
+        if (end < 0 || !fileName.startsWith(name + ".")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(start, end));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private File file(long gen, String ext) {
+        return new File(dir, name + "." + gen + ext);
+    }
+
+    // Returns the log length covered by the index, or -1 when it is unusable
+    private long readIndexHeader(File idxPath) {
+        if (!idxPath.isFile() || idxPath.length() < INDEX_HEADER) {
+            return -1;
+        }
+        try (RandomAccessFile idx = new RandomAccessFile(idxPath, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            idx.getChannel().read(header, 0);
+            header.flip();
+            if (header.getLong() != INDEX_MAGIC) {
+                return -1;
+            }
+            long covered = header.getLong();
+            int slots = header.getInt();
+            if (slots <= 0 || Integer.bitCount(slots) != 1
+                    || idxPath.length() != INDEX_HEADER + (long) slots * SLOT_SIZE) {
+                return -1;
+            }
+            slotCount = slots;
+            return covered;
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /*
+     * Reads the records after the indexed part of the log. Damaged records
+     * are skipped by searching for the next record that passes its CRC check.
+     * Returns the end of the last good record.
+     */
+    private long scanTail(long from) throws IOException {
+        long pos = from;
+        long goodEnd = from;
+        while (pos < logLength) {
+            Record r = readRecord(pos);
+            if (r == null) {
+                long next = resync(pos + 1);
+                if (next < 0) {
+                    break;
+                }
+                deadBytes += next - pos;
+                pos = next;
+                continue;
+            }
+            Long previous = tail.put(r.key, pos);
+            if (previous != null) {
+                deadBytes += recordLength(previous);
+            }
+            pos += r.length;
+            goodEnd = pos;
+        }
+        return goodEnd;
+    }
+
+    // Offset of the next valid record at or after pos, or -1
+    private long resync(long pos) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(RESYNC_CHUNK);
+        while (pos < logLength - RECORD_HEADER) {
+            chunk.clear();
+            int n = log.read(chunk, pos);
+            if (n < 4) {
+                return -1;
+            }
+            for (int i = 0; i + 4 <= n; i++) {
+                if (chunk.getInt(i) == RECORD_MAGIC && readRecord(pos + i) != null) {
+                    return pos + i;
+                }
+            }
+            pos += n - 3;
+        }
+        return -1;
+    }
+
+    // Reads and verifies the record at pos from the file, null when it is damaged
+    private Record readRecord(long pos) throws IOException {
+        return readRecord(log, headerBuffer, logLength, pos);
+    }
+
+    private static Record readRecord(FileChannel ch, ByteBuffer header, long end, long pos)
+            throws IOException {
+        header.clear();
+        if (readFully(ch, header, pos) < RECORD_HEADER) {
+            return null;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        int crc = header.getInt();
+        if (magic != RECORD_MAGIC || keyLength < 0 || valueLength < 0
+                || keyLength > MAX_FIELD_LENGTH || valueLength > MAX_FIELD_LENGTH
+                || pos + RECORD_HEADER + keyLength + valueLength > end) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(keyLength + valueLength);
+        if (readFully(ch, body, pos + RECORD_HEADER) < body.capacity()) {
+            return null;
+        }
+        return toRecord(body.array(), 0, keyLength, valueLength, crc);
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buffer, long pos) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = ch.read(buffer, pos + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static Record toRecord(byte[] data, int start, int keyLength, int valueLength, int crc) {
+        CRC32 check = new CRC32();
+        check.update(data, start, keyLength + valueLength);
+        if ((int) check.getValue() != crc) {
+            return null;
+        }
+        Record r = new Record();
+        r.key = new String(data, start, keyLength, StandardCharsets.UTF_8);
+        r.value = new String(data, start + keyLength, valueLength, StandardCharsets.UTF_8);
+        r.length = RECORD_HEADER + keyLength + valueLength;
+        return r;
+    }
+
+    private static int checksum(byte[] key, byte[] value) {
+        CRC32 check = new CRC32();
+        check.update(key);
+        check.update(value);
+        return (int) check.getValue();
+    }
+
+    // Reads the record at offset, either from the mapped part or from the file
+    private Record read(long offset) throws IOException {
+        if (mappedLog != null && offset < mappedLog.capacity()) {
+            ByteBuffer b = mappedLog.duplicate();
+            b.position((int) offset);
+            try {
+                if (b.getInt() != RECORD_MAGIC) {
+                    throw new IOException("Damaged record at " + offset);
+                }
+                int keyLength = b.getInt();
+                int valueLength = b.getInt();
+                int crc = b.getInt();
+                if (keyLength < 0 || valueLength < 0 || keyLength > MAX_FIELD_LENGTH
+                        || valueLength > MAX_FIELD_LENGTH) {
+                    throw new IOException("Damaged record at " + offset);
+                }
+                byte[] data = new byte[keyLength + valueLength];
+                b.get(data);
+                Record r = toRecord(data, 0, keyLength, valueLength, crc);
+                if (r == null) {
+                    throw new IOException("Damaged record at " + offset);
+                }
+                return r;
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("Damaged record at " + offset);
+            }
+        }
+        Record r = readRecord(offset);
+        if (r == null) {
+            throw new IOException("Damaged record at " + offset);
+        }
+        return r;
+    }
+
+    private String readValue(long offset, String text) throws IOException {
+        Record r = read(offset);
+        return r.key.equals(text) ? r.value : null;
+    }
+
+    private long recordLength(long offset) {
+        try {
+            return read(offset).length;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private String lookupIndex(String text) throws IOException {
+        int slot = lookupSlot(text);
+        return slot < 0 ? null : readValue(readSlotOffset(slot), text);
+    }
+
+    // Slot holding the record for the text, or -1
+    private int lookupSlot(String text) {
+        if (index == null) {
+            return -1;
+        }
+        int hash = text.hashCode();
+        int mask = slotCount - 1;
+        for (int i = 0, slot = mix(hash) & mask; i < slotCount; i++, slot = (slot + 1) & mask) {
+            int base = INDEX_HEADER + slot * SLOT_SIZE;
+            long offset = index.getLong(base + 4) - 1;
+            if (offset < 0) {
+                return -1;
+            }
+            if (index.getInt(base) == hash) {
+                try {
+                    if (read(offset).key.equals(text)) {
+                        return slot;
+                    }
+                } catch (IOException ex) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private long readSlotOffset(int slot) {
+        return index.getLong(INDEX_HEADER + slot * SLOT_SIZE + 4) - 1;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void scheduleCompaction() {
+        if (compactionPending || closed) {
+            return;
+        }
+        compactionPending = true;
+        COMPACTOR.execute(() -> {
+            try {
+                compact();
+            } catch (IOException ex) {
+                Log.log("Autshumato MT store " + name + ": compaction failed");
+                Log.log(ex);
+            }
+        });
+    }
+
+    /*
+     * Writes the live records into the next generation of the log, oldest
+     * first, together with a fresh index, then switches over to it. Only the
+     * snapshot and the switch hold the lock: the part of the log covered by
+     * the snapshot never changes again, so it is rewritten through a handle
+     * of its own while lookups and appends go on. Records appended in the
+     * meantime are copied behind the rewritten ones during the switch.
+     */
+    void compact() throws IOException {
+        synchronized (compaction) {
+            compactGeneration();
+        }
+    }
+
+    private void compactGeneration() throws IOException {
+        Snapshot snapshot;
+        synchronized (this) {
+            compactionPending = false;
+            if (closed) {
+                return;
+            }
+            snapshot = snapshot();
+        }
+        long next = snapshot.generation + 1;
+        File logTmp = new File(dir, name + "." + next + LOG_EXT + TMP_EXT);
+        File idxTmp = new File(dir, name + "." + next + INDEX_EXT + TMP_EXT);
+        try {
+            rewrite(snapshot, logTmp, idxTmp);
+            synchronized (this) {
+                if (closed || generation != snapshot.generation) {
+                    return;
+                }
+                appendSince(snapshot.end, logTmp);
+                switchTo(next, logTmp, idxTmp);
+            }
+        } finally {
+            // Only still there when the compaction did not complete
+            if (logTmp.exists() && !logTmp.delete()) {
+                logTmp.deleteOnExit();
+            }
+            if (idxTmp.exists() && !idxTmp.delete()) {
+                idxTmp.deleteOnExit();
+            }
+        }
+    }
+
+    // Where the latest record of every text is, taken under the lock
+    private Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        s.generation = generation;
+        s.path = file(generation, LOG_EXT);
+        s.end = logLength;
+        s.tail = new HashMap<>(tail);
+        int n = 0;
+        s.indexed = new long[index == null ? 0 : slotCount];
+        for (int slot = 0; slot < s.indexed.length; slot++) {
+            long offset = readSlotOffset(slot);
+            if (offset >= 0) {
+                s.indexed[n++] = offset;
+            }
+        }
+        s.indexed = Arrays.copyOf(s.indexed, n);
+        return s;
+    }
+
+    // Writes the live records of a snapshot and their index to the given files
+    private void rewrite(Snapshot snapshot, File logTmp, File idxTmp) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = 0;
+        try (RandomAccessFile in = new RandomAccessFile(snapshot.path, "r")) {
+            FileChannel ch = in.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            // Latest offset of every text still readable, the tail replaces the index
+            Map<String, Long> live = new HashMap<>(snapshot.tail);
+            for (long offset : snapshot.indexed) {
+                Record r = readRecord(ch, header, snapshot.end, offset);
+                if (r != null) {
+                    live.putIfAbsent(r.key, offset);
+                }
+            }
+            List<Map.Entry<String, Long>> order = new ArrayList<>(live.entrySet());
+            Collections.sort(order, Comparator.comparing(Map.Entry::getValue));
+            for (Map.Entry<String, Long> e : order) {
+                // Damaged records are dropped by the compaction
+                Record r = readRecord(ch, header, snapshot.end, e.getValue());
+                if (r != null) {
+                    records.add(r);
+                    size += r.length;
+                }
+            }
+        }
+        // Keep three quarters of the cap so the next compaction is not immediate
+        int first = 0;
+        long limit = maxBytes - maxBytes / 4;
+        while (size > limit && first < records.size()) {
+            size -= records.get(first++).length;
+        }
+        records = records.subList(first, records.size());
+
+        long[] offsets = new long[records.size()];
+        try (RandomAccessFile out = new RandomAccessFile(logTmp, "rw")) {
+            out.setLength(0);
+            FileChannel ch = out.getChannel();
+            long pos = 0;
+            for (int i = 0; i < records.size(); i++) {
+                Record r = records.get(i);
+                byte[] key = r.key.getBytes(StandardCharsets.UTF_8);
+                byte[] value = r.value.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer b = ByteBuffer.allocate(RECORD_HEADER + key.length + value.length);
+                b.putInt(RECORD_MAGIC).putInt(key.length).putInt(value.length)
+                        .putInt(checksum(key, value)).put(key).put(value);
+                b.flip();
+                offsets[i] = pos;
+                while (b.hasRemaining()) {
+                    pos += ch.write(b, pos);
+                }
+            }
+            ch.force(true);
+            size = pos;
+        }
+        writeIndex(idxTmp, records, offsets, size);
+    }
+
+    /*
+     * Copies what was appended to the log after the given offset behind the
+     * rewritten records. The new index does not cover them, so they are read
+     * back into the tail when the new generation is loaded.
+     */
+    private void appendSince(long from, File logTmp) throws IOException {
+        if (from >= logLength) {
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(logTmp, "rw")) {
+            FileChannel ch = out.getChannel();
+            ch.position(ch.size());
+            for (long pos = from; pos < logLength; ) {
+                pos += log.transferTo(pos, logLength - pos, ch);
+            }
+            ch.force(true);
+        }
+    }
+
+    /*
+     * Switches over to the compacted generation. The current files stay open
+     * until the new ones are loaded, so that the store keeps working on them
+     * when the new generation cannot be opened.
+     */
+    private void switchTo(long next, File logTmp, File idxTmp) throws IOException {
+        long oldGeneration = generation;
+        RandomAccessFile oldLogFile = logFile;
+        FileChannel oldLog = log;
+        long oldLogLength = logLength;
+        MappedByteBuffer oldMappedLog = mappedLog;
+        MappedByteBuffer oldIndex = index;
+        int oldSlotCount = slotCount;
+        long oldDeadBytes = deadBytes;
+        Map<String, Long> oldTail = new HashMap<>(tail);
+        try {
+            log.force(false);
+            Files.move(logTmp.toPath(), file(next, LOG_EXT).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(idxTmp.toPath(), file(next, INDEX_EXT).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tail.clear();
+            deadBytes = 0;
+            mappedLog = null;
+            index = null;
+            load();
+        } catch (IOException | RuntimeException ex) {
+            if (logFile != oldLogFile) {
+                closeFiles();
+            }
+            generation = oldGeneration;
+            logFile = oldLogFile;
+            log = oldLog;
+            logLength = oldLogLength;
+            mappedLog = oldMappedLog;
+            index = oldIndex;
+            slotCount = oldSlotCount;
+            deadBytes = oldDeadBytes;
+            tail.clear();
+            tail.putAll(oldTail);
+            // The next open would otherwise pick the generation that failed
+            for (File f : new File[] { file(next, LOG_EXT), file(next, INDEX_EXT) }) {
+                if (f.exists() && !f.delete()) {
+                    f.deleteOnExit();
+                }
+            }
+            throw ex;
+        }
+        try {
+            oldLogFile.close();
+        } catch (IOException ex) {
+            Log.log(ex);
+        }
+    }
+
+    private void writeIndex(File path, List<Record> records, long[] offsets, long covered)
+            throws IOException {
+        int slots = Integer.highestOneBit(Math.max(16, records.size() * 2) - 1) << 1;
+        ByteBuffer b = ByteBuffer.allocate(INDEX_HEADER + slots * SLOT_SIZE);
+        b.putLong(INDEX_MAGIC).putLong(covered).putInt(slots).putInt(records.size());
+        int mask = slots - 1;
+        for (int i = 0; i < records.size(); i++) {
+            int hash = records.get(i).key.hashCode();
+            int slot = mix(hash) & mask;
+            while (b.getLong(INDEX_HEADER + slot * SLOT_SIZE + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            b.putInt(INDEX_HEADER + slot * SLOT_SIZE, hash);
+            b.putLong(INDEX_HEADER + slot * SLOT_SIZE + 4, offsets[i] + 1);
+        }
+        b.position(0);
+        try (RandomAccessFile out = new RandomAccessFile(path, "rw")) {
+            out.setLength(0);
+            FileChannel ch = out.getChannel();
+            while (b.hasRemaining()) {
+                ch.write(b);
+            }
+            ch.force(true);
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            if (log != null) {
+                log.force(false);
+                logFile.close();
+            }
+        } catch (IOException ex) {
+            Log.log(ex);
+        }
+        log = null;
+        logFile = null;
+    }
+
+    private static final class Record
+    {
+        String key;
+        String value;
+        int length;
+    }
+
+    /** Live records of the log when a compaction started. */
+    private static final class Snapshot
+    {
+        long generation;
+        File path;
+        long end;
+        Map<String, Long> tail;
+        long[] indexed;
+    }
+
+    /** Position of {@link #read} in the log. */
+    static final class Cursor
+    {
+        long generation = -1;
+        long position;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.List;
+import org.omegat.util.Log;
+
+/**
+ * Checks machine translations against the project glossary.
+ * <p>For every glossary term in the source, one of its target terms should
+ * appear in the translation. The service does not report which words of
+ * the translation stand for which source words, so a wrong translation of
+ * a term cannot be located. When enforcing, a term the service left
+ * untranslated is replaced with the preferred target term. Terms still
+ * missing are written to the log: the translation is inserted into the
+ * target segment as it is, so nothing but the translation goes into it.
+ */
+final class GlossaryConstraints
+{
+    private GlossaryConstraints() {
+    }
+
+    /**
+     * Checks a translation against the glossary.
+     * @param source Source text
+     * @param translation Machine translation of the source
+     * @param matcher Glossary of the project
+     * @param enforce Whether terms left untranslated are replaced
+     * @return the translation, with replaced terms
+     */
+    static String apply(String source, String translation, GlossaryMatcher matcher, boolean enforce) {
+        List<GlossaryMatcher.Match> matches = matcher.find(source);
+        if (matches.isEmpty()) {
+            return translation;
+        }
+        String result = translation;
+        String lower = GlossaryMatcher.lowerCase(result);
+        StringBuilder missing = null;
+        for (GlossaryMatcher.Match m : matches) {
+            if (containsAny(lower, m.targets)) {
+                continue;
+            }
+            String preferred = m.targets.get(0);
+            if (enforce) {
+                int at = indexOfWord(lower, GlossaryMatcher.lowerCase(m.source), 0);
+                if (at >= 0) {
+                    String replacement = matchCase(result.substring(at, at + m.source.length()), preferred);
+                    result = result.substring(0, at) + replacement + result.substring(at + m.source.length());
+                    lower = GlossaryMatcher.lowerCase(result);
+                    continue;
+                }
+            }
+            if (missing == null) {
+                missing = new StringBuilder("Autshumato Translate: glossary terms missing from the translation: ");
+            } else {
+                missing.append("; ");
+            }
+            missing.append(m.source).append(" = ").append(preferred);
+        }
+        if (missing != null) {
+            Log.log(missing.toString());
+        }
+        return result;
+    }
+
+    private static boolean containsAny(String lowerText, List<String> terms) {
+        for (String t : terms) {
+            if (indexOfWord(lowerText, GlossaryMatcher.lowerCase(t.trim()), 0) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Index of a whole word occurrence of the term, or -1
+    private static int indexOfWord(String text, String term, int from) {
+        if (term.isEmpty()) {
+            return -1;
+        }
+        for (int i = text.indexOf(term, from); i >= 0; i = text.indexOf(term, i + 1)) {
+            if (GlossaryMatcher.isWordStart(text, i) && GlossaryMatcher.isWordEnd(text, i + term.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The target term with an initial capital when the replaced word had one
+    private static String matchCase(String replaced, String target) {
+        if (!replaced.isEmpty() && Character.isUpperCase(replaced.charAt(0)) && !target.isEmpty()) {
+            return Character.toUpperCase(target.charAt(0)) + target.substring(1);
+        }
+        return target;
+    }
+}
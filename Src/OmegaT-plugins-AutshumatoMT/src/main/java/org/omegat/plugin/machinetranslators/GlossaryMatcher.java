@@ -0,0 +1,320 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds glossary terms in a text in a single pass, whatever the number of
+ * terms, with an Aho-Corasick automaton over the lower case source terms.
+ * <p>Only whole words match. Where terms overlap, the one that starts first
+ * wins, and of those the longest. The matcher is immutable and can be used
+ * by several threads at once.
+ * <p>Several matchers can be searched as one with {@link #union}, so that
+ * a glossary made of several files only rebuilds the automaton of the file
+ * that changed.
+ */
+final class GlossaryMatcher
+{
+    private static final char[] NO_LABELS = new char[0];
+    private static final int[] NO_NEXT = new int[0];
+
+    /** A matcher without terms. */
+    static final GlossaryMatcher EMPTY = build(Collections.<String, List<String>>emptyMap());
+
+    // Trie nodes; node 0 is the root. Children of a node are sorted by label.
+    private final char[][] labels;
+    private final int[][] next;
+    private final int[] fail;
+    // Term ending at the node, or -1
+    private final int[] term;
+    // Nearest node on the failure chain where a term ends, or -1
+    private final int[] output;
+    private final String[] terms;
+    private final List<List<String>> targets;
+    // Matchers searched instead of this automaton, or null
+    private final GlossaryMatcher[] parts;
+
+    private GlossaryMatcher(char[][] labels, int[][] next, int[] fail, int[] term, int[] output,
+            String[] terms, List<List<String>> targets, GlossaryMatcher[] parts) {
+        this.labels = labels;
+        this.next = next;
+        this.fail = fail;
+        this.term = term;
+        this.output = output;
+        this.terms = terms;
+        this.targets = targets;
+        this.parts = parts;
+    }
+
+    /**
+     * Builds the automaton.
+     * @param glossary Source terms, to their target terms with the preferred
+     *        one first
+     * @return the matcher
+     */
+    static GlossaryMatcher build(Map<String, List<String>> glossary) {
+        List<char[]> labels = new ArrayList<>();
+        List<int[]> next = new ArrayList<>();
+        List<Integer> term = new ArrayList<>();
+        labels.add(NO_LABELS);
+        next.add(NO_NEXT);
+        term.add(-1);
+        String[] terms = new String[glossary.size()];
+        List<List<String>> targets = new ArrayList<>(glossary.size());
+        for (Map.Entry<String, List<String>> e : glossary.entrySet()) {
+            String s = lowerCase(e.getKey().trim());
+            if (s.isEmpty() || e.getValue().isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                int k = Arrays.binarySearch(labels.get(node), c);
+                if (k >= 0) {
+                    node = next.get(node)[k];
+                    continue;
+                }
+                int child = labels.size();
+                labels.add(NO_LABELS);
+                next.add(NO_NEXT);
+                term.add(-1);
+                k = -k - 1;
+                labels.set(node, insert(labels.get(node), k, c));
+                next.set(node, insert(next.get(node), k, child));
+                node = child;
+            }
+            if (term.get(node) < 0) {
+                terms[targets.size()] = s;
+                term.set(node, targets.size());
+                targets.add(Collections.unmodifiableList(new ArrayList<>(e.getValue())));
+            }
+        }
+
+        // Failure links, breadth first so that shorter prefixes come first
+        int size = labels.size();
+        int[] fail = new int[size];
+        int[] termArray = new int[size];
+        int[] output = new int[size];
+        for (int n = 0; n < size; n++) {
+            termArray[n] = term.get(n);
+        }
+        output[0] = -1;
+        int[] queue = new int[size];
+        int tail = 1;
+        for (int head = 0; head < tail; head++) {
+            int node = queue[head];
+            char[] l = labels.get(node);
+            int[] children = next.get(node);
+            for (int k = 0; k < l.length; k++) {
+                int child = children[k];
+                int f = 0;
+                if (node != 0) {
+                    f = fail[node];
+                    int target;
+                    while ((target = step(labels, next, f, l[k])) < 0 && f != 0) {
+                        f = fail[f];
+                    }
+                    f = Math.max(target, 0);
+                }
+                fail[child] = f;
+                output[child] = termArray[f] >= 0 ? f : output[f];
+                queue[tail++] = child;
+            }
+        }
+        return new GlossaryMatcher(labels.toArray(new char[0][]), next.toArray(new int[0][]), fail,
+                termArray, output, Arrays.copyOf(terms, targets.size()), targets, null);
+    }
+
+    /**
+     * Searches several matchers as one. A term found by more than one of
+     * them has the target terms of all, those of the first matcher first.
+     * @param matchers Matchers in order of priority
+     * @return the combined matcher
+     */
+    static GlossaryMatcher union(List<GlossaryMatcher> matchers) {
+        List<GlossaryMatcher> automata = new ArrayList<>();
+        for (GlossaryMatcher m : matchers) {
+            if (m.parts != null) {
+                automata.addAll(Arrays.asList(m.parts));
+            } else if (m.size() > 0) {
+                automata.add(m);
+            }
+        }
+        if (automata.size() < 2) {
+            return automata.isEmpty() ? EMPTY : automata.get(0);
+        }
+        return new GlossaryMatcher(EMPTY.labels, EMPTY.next, EMPTY.fail, EMPTY.term, EMPTY.output, EMPTY.terms,
+                EMPTY.targets, automata.toArray(new GlossaryMatcher[0]));
+    }
+
+    /**
+     * Number of source terms, counted once for each matcher of a union.
+     * @return the number of terms
+     */
+    int size() {
+        if (parts == null) {
+            return terms.length;
+        }
+        int size = 0;
+        for (GlossaryMatcher m : parts) {
+            size += m.size();
+        }
+        return size;
+    }
+
+    /**
+     * Finds the glossary terms in a text.
+     * @param text Text to search
+     * @return the terms found, in text order, not overlapping
+     */
+    List<Match> find(String text) {
+        List<Match> found = new ArrayList<>();
+        if (parts == null) {
+            collect(text, found);
+        } else {
+            for (GlossaryMatcher m : parts) {
+                m.collect(text, found);
+            }
+        }
+        if (found.size() < 2) {
+            return found;
+        }
+        // Leftmost, then longest, of overlapping terms. The sort is stable,
+        // so the same term from several matchers stays in their order.
+        found.sort((a, b) -> a.start != b.start ? a.start - b.start : b.end - a.end);
+        List<Match> result = new ArrayList<>();
+        Match last = null;
+        for (Match m : found) {
+            if (last != null && m.start == last.start && m.end == last.end) {
+                last = new Match(last.start, last.end, last.source, mergeTargets(last.targets, m.targets));
+                result.set(result.size() - 1, last);
+            } else if (last == null || m.start >= last.end) {
+                result.add(m);
+                last = m;
+            }
+        }
+        return result;
+    }
+
+    // Adds the terms of this automaton found in the text, overlapping or not
+    private void collect(String text, List<Match> found) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target;
+            while ((target = step(node, c)) < 0 && node != 0) {
+                node = fail[node];
+            }
+            node = Math.max(target, 0);
+            for (int n = term[node] >= 0 ? node : output[node]; n >= 0; n = output[n]) {
+                int t = term[n];
+                int start = i + 1 - terms[t].length();
+                if (isWordStart(text, start) && isWordEnd(text, i + 1)) {
+                    found.add(new Match(start, i + 1, text.substring(start, i + 1), targets.get(t)));
+                }
+            }
+        }
+    }
+
+    private static List<String> mergeTargets(List<String> first, List<String> second) {
+        List<String> merged = new ArrayList<>(first);
+        for (String t : second) {
+            boolean known = false;
+            for (String m : merged) {
+                known |= m.equalsIgnoreCase(t);
+            }
+            if (!known) {
+                merged.add(t);
+            }
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    private int step(int node, char c) {
+        int k = Arrays.binarySearch(labels[node], c);
+        return k < 0 ? -1 : next[node][k];
+    }
+
+    private static int step(List<char[]> labels, List<int[]> next, int node, char c) {
+        int k = Arrays.binarySearch(labels.get(node), c);
+        return k < 0 ? -1 : next.get(node)[k];
+    }
+
+    static boolean isWordStart(String text, int index) {
+        return index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1));
+    }
+
+    static boolean isWordEnd(String text, int index) {
+        return index == text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    /**
+     * Lower case a term one character at a time, so that offsets in the
+     * lower case text are the same as in the original.
+     */
+    static String lowerCase(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            sb.append(Character.toLowerCase(s.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    private static char[] insert(char[] a, int index, char c) {
+        char[] r = new char[a.length + 1];
+        System.arraycopy(a, 0, r, 0, index);
+        r[index] = c;
+        System.arraycopy(a, index, r, index + 1, a.length - index);
+        return r;
+    }
+
+    private static int[] insert(int[] a, int index, int v) {
+        int[] r = new int[a.length + 1];
+        System.arraycopy(a, 0, r, 0, index);
+        r[index] = v;
+        System.arraycopy(a, index, r, index + 1, a.length - index);
+        return r;
+    }
+
+    /** A glossary term found in a text. */
+    static final class Match
+    {
+        final int start;
+        final int end;
+        final String source;
+        final List<String> targets;
+
+        Match(int start, int end, String source, List<String> targets) {
+            this.start = start;
+            this.end = end;
+            this.source = source;
+            this.targets = targets;
+        }
+    }
+}
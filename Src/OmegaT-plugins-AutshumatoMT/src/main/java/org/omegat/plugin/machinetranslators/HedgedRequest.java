@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a request with an optional hedge: when the first attempt has not
+ * answered within the hedge delay, an identical second attempt is started.
+ * The first attempt to succeed wins and the other one is cancelled. When
+ * one attempt fails the other one is still waited for; the request only
+ * fails when both do.
+ */
+final class HedgedRequest
+{
+    /**
+     * One attempt of the request.
+     * @param <T> Result of the request
+     */
+    interface Attempt<T>
+    {
+        T run(MTHttpClient.Call call) throws Exception;
+    }
+
+    private HedgedRequest() {
+    }
+
+    /**
+     * Runs the request.
+     * @param <T> Result of the request
+     * @param pool Runs the attempts when hedging
+     * @param scope Scope the attempts are cancelled with
+     * @param attempt Sends the request once
+     * @param readTimeout Read timeout of every attempt in milliseconds
+     * @param hedgeDelay Delay before the second attempt in milliseconds,
+     * negative to send a single attempt on the calling thread
+     * @return the result of the winning attempt
+     * @throws Exception the failure of the first attempt when all failed
+     */
+    static <T> T run(ExecutorService pool, RequestScope scope, Attempt<T> attempt, int readTimeout,
+            long hedgeDelay) throws Exception {
+        if (hedgeDelay < 0) {
+            MTHttpClient.Call call = scope.newCall(readTimeout);
+            try {
+                return attempt.run(call);
+            } finally {
+                scope.finished(call);
+            }
+        }
+        CompletionService<T> completion = new ExecutorCompletionService<>(pool);
+        MTHttpClient.Call first = scope.newCall(readTimeout);
+        MTHttpClient.Call second = scope.newCall(readTimeout);
+        Future<T> f1 = completion.submit(() -> attempt.run(first));
+        Future<T> f2 = null;
+        try {
+            Future<T> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                f2 = completion.submit(() -> attempt.run(second));
+            }
+            int pending = f2 == null ? 1 : 2;
+            Exception failure = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (failure == null) {
+                        failure = cause instanceof Exception ? (Exception) cause : ex;
+                    }
+                }
+                done = null;
+            }
+            throw failure;
+        } finally {
+            // The loser, or both attempts when the caller was interrupted
+            first.cancel();
+            second.cancel();
+            scope.finished(first);
+            scope.finished(second);
+            f1.cancel(true);
+            if (f2 != null) {
+                f2.cancel(true);
+            }
+        }
+    }
+}
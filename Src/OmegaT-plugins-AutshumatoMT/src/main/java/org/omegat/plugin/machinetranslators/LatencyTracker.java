@@ -0,0 +1,90 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.Arrays;
+
+/**
+ * Latency of recent requests to the MT service, used to derive timeouts
+ * and the delay before a hedged request.
+ * <p>Keeps the most recent samples in a ring buffer; percentiles are only
+ * reported once enough samples were seen to be meaningful.
+ */
+class LatencyTracker
+{
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+    // The adaptive timeout is this multiple of the 99th percentile
+    private static final int TIMEOUT_FACTOR = 4;
+    private static final int MIN_TIMEOUT = 5000;
+
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    /**
+     * Records the latency of a finished request. Timed out requests should
+     * be recorded with their timeout, so a general slowdown raises the
+     * adaptive timeout again.
+     * @param millis Latency in milliseconds
+     */
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    /**
+     * Latency percentile over the recent requests.
+     * @param p Percentile between 0 and 1
+     * @return the latency in milliseconds, or -1 while there are too few samples
+     */
+    synchronized long percentile(double p) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Read timeout derived from the observed latency: a multiple of the
+     * 99th percentile, never below a floor and never above the configured
+     * timeout.
+     * @param configured Configured read timeout in milliseconds, 0 for none
+     * @return the read timeout to use in milliseconds
+     */
+    int timeout(int configured) {
+        long p99 = percentile(0.99);
+        if (p99 < 0) {
+            return configured;
+        }
+        long adaptive = Math.max(MIN_TIMEOUT, p99 * TIMEOUT_FACTOR);
+        return configured == 0 ? (int) Math.min(Integer.MAX_VALUE, adaptive) : (int) Math.min(configured, adaptive);
+    }
+}
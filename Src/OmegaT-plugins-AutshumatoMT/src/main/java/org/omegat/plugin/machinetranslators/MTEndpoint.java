@@ -0,0 +1,166 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One server running the Autshumato MT service, with the statistics used
+ * to choose between servers: a moving average of its latency, the number
+ * of requests it is busy with, and a circuit breaker that keeps it out of
+ * rotation while it is unreachable.
+ */
+class MTEndpoint
+{
+    // Weight of the newest sample in the moving average
+    private static final double ALPHA = 0.3;
+    // Latency assumed before the first answer and counted for every failed
+    // request, so that an endpoint is not preferred for being unknown or
+    // for failing fast
+    private static final double PESSIMISTIC_MILLIS = 2000;
+
+    private final String url;
+    private final CircuitBreaker breaker;
+    private final RequestLimiter limiter = new RequestLimiter();
+    private final AtomicInteger active = new AtomicInteger();
+    private double averageMillis = PESSIMISTIC_MILLIS;
+    private boolean sampled;
+
+    /**
+     * Creates a new endpoint.
+     * @param url Address of the translate service
+     * @param http Client used to check the server while it is unreachable
+     */
+    MTEndpoint(String url, MTHttpClient http) {
+        this.url = url;
+        this.breaker = new CircuitBreaker("Autshumato MT service at " + url, () -> {
+            // Any answer below 500 means the server is back, even an error
+            // for the missing parameters
+            int status = http.get(url, Collections.<String, String>emptyMap(),
+                    Collections.<String, String>emptyMap(), (code, body) -> code);
+            if (status >= 500) {
+                throw new MTServiceException(status, "Service not available");
+            }
+        });
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Whether requests may be sent to this endpoint.
+     * @return false while its breaker is open
+     */
+    boolean isAvailable() {
+        return breaker.allowRequest();
+    }
+
+    /**
+     * Time before the endpoint accepts requests again after telling us it
+     * is overloaded.
+     * @return the pause in milliseconds, 0 when it is not paused
+     */
+    long getPause() {
+        return limiter.getPause();
+    }
+
+    /**
+     * Expected cost of one more request: the average latency times the
+     * number of requests the endpoint would then be busy with, plus the
+     * time it is paused for after telling us it is overloaded. Endpoints
+     * without answers yet count as slow, and failures make an endpoint
+     * look slower.
+     * @return the cost, lower is better
+     */
+    double getLoad() {
+        long pause = getPause();
+        synchronized (this) {
+            return averageMillis * (active.get() + 1) + pause;
+        }
+    }
+
+    /**
+     * Waits for the turn of a request to this endpoint, and records its
+     * start.
+     * @param priority Priority of the request
+     * @param call The request, which stops waiting when it is cancelled
+     * @throws InterruptedException when the waiting thread is interrupted
+     * @throws RequestCancelledException when the request was cancelled
+     */
+    void start(MTPriority priority, MTHttpClient.Call call)
+            throws InterruptedException, RequestCancelledException {
+        limiter.acquire(priority, call);
+        active.incrementAndGet();
+    }
+
+    /**
+     * Records a request that got an answer.
+     * @param millis Latency of the request
+     */
+    void succeeded(long millis) {
+        active.decrementAndGet();
+        synchronized (this) {
+            // The first answer replaces the assumed latency
+            averageMillis = sampled ? ALPHA * millis + (1 - ALPHA) * averageMillis : millis;
+            sampled = true;
+        }
+        limiter.onSuccess();
+        breaker.onSuccess();
+    }
+
+    /**
+     * Records a failed request.
+     * @param failure The exception the request failed with
+     */
+    void failed(Throwable failure) {
+        active.decrementAndGet();
+        if (CircuitBreaker.isServiceFailure(failure)) {
+            synchronized (this) {
+                averageMillis = Math.max(averageMillis,
+                        ALPHA * PESSIMISTIC_MILLIS + (1 - ALPHA) * averageMillis);
+            }
+        }
+        breaker.onFailure(failure);
+    }
+
+    /**
+     * Records a request the server refused because it is overloaded, which
+     * pauses the endpoint.
+     * @param retryAfter Delay the server asked for in milliseconds, or -1
+     */
+    void overloaded(long retryAfter) {
+        limiter.onOverloaded(retryAfter);
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The servers requests are spread over, read from the
+ * <code>autshumato_mt_endpoints</code> setting.
+ * <p>Each request goes to the less loaded of two available endpoints
+ * picked at random ("power of two choices"), which balances the load about
+ * as well as always taking the best endpoint without sending every request
+ * to the same one while the statistics catch up.
+ */
+class MTEndpoints
+{
+    private final MTHttpClient http;
+    private final String defaultUrl;
+    private String configured;
+    private List<MTEndpoint> endpoints = new ArrayList<>();
+    // Kept when the setting changes, so the statistics are not lost
+    private final Map<String, MTEndpoint> known = new HashMap<>();
+
+    /**
+     * Creates the endpoint list.
+     * @param http Client used to check unreachable endpoints
+     * @param defaultUrl Endpoint used when none are configured
+     */
+    MTEndpoints(MTHttpClient http, String defaultUrl) {
+        this.http = http;
+        this.defaultUrl = defaultUrl;
+    }
+
+    /**
+     * The configured endpoints, in configured order.
+     * @return the endpoints, never empty
+     */
+    synchronized List<MTEndpoint> getAll() {
+        String setting = AutshumatoSettings.getEndpoints(defaultUrl);
+        if (!setting.equals(configured)) {
+            List<MTEndpoint> list = new ArrayList<>();
+            for (String url : setting.split("[\\s,]+")) {
+                if (!url.isEmpty() && !known.containsKey(url)) {
+                    known.put(url, new MTEndpoint(url, http));
+                }
+                if (!url.isEmpty() && !list.contains(known.get(url))) {
+                    list.add(known.get(url));
+                }
+            }
+            if (list.isEmpty()) {
+                known.putIfAbsent(defaultUrl, new MTEndpoint(defaultUrl, http));
+                list.add(known.get(defaultUrl));
+            }
+            configured = setting;
+            endpoints = list;
+        }
+        return endpoints;
+    }
+
+    /**
+     * Chooses the endpoint for the next request.
+     * @param exclude Endpoints already tried for this request
+     * @return the endpoint, or null when no endpoint is available
+     */
+    MTEndpoint select(Collection<MTEndpoint> exclude) {
+        List<MTEndpoint> candidates = new ArrayList<>();
+        for (MTEndpoint endpoint : getAll()) {
+            if (endpoint.isAvailable() && !exclude.contains(endpoint)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(candidates.size());
+        int j = random.nextInt(candidates.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        MTEndpoint a = candidates.get(i);
+        MTEndpoint b = candidates.get(j);
+        return a.getLoad() <= b.getLoad() ? a : b;
+    }
+
+    /**
+     * Exception for a request that found no available endpoint, naming the
+     * endpoint that is checked again first.
+     * @return the exception to throw
+     */
+    MTServiceException rejected() {
+        CircuitBreaker first = null;
+        for (MTEndpoint endpoint : getAll()) {
+            CircuitBreaker breaker = endpoint.getBreaker();
+            if (first == null || breaker.getRetryDelay() < first.getRetryDelay()) {
+                first = breaker;
+            }
+        }
+        return first.rejected();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP access to the Autshumato MT service.
+ * <p>Unlike <code>org.omegat.util.WikiGet</code> the response body is not
+ * buffered into a string first: it is handed to a {@link ResponseHandler}
+ * as a stream, together with the HTTP status, for both successful and
+ * failed requests.
+ * <p>Connections are kept alive and reused through the keep-alive cache of
+ * the Java HTTP implementation, which keeps a few idle connections per host
+ * (<code>http.maxConnections</code>, 5 by default, set for the whole Java
+ * runtime when OmegaT is started). A connection is only kept when its
+ * response was read to the end, so whatever the handler leaves unread is
+ * drained before the stream is closed. Responses are requested
+ * gzip-compressed, and connect and read timeouts come from
+ * {@link AutshumatoSettings}.
+ */
+class MTHttpClient
+{
+    // Larger leftovers are cheaper to drop with the connection than to read
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    /**
+     * Consumes the body of a response.
+     * @param <T> Result of the request
+     */
+    interface ResponseHandler<T>
+    {
+        /**
+         * Reads the response.
+         * @param status HTTP status of the response
+         * @param body Response body, empty when the server sent none
+         * @return the result of the request
+         * @throws IOException when the response cannot be read or is an error
+         */
+        T handle(int status, InputStream body) throws IOException;
+    }
+
+    /**
+     * A single request that can be aborted from another thread.
+     */
+    static class Call
+    {
+        private final int readTimeout;
+        private volatile long retryAfter = -1;
+        private HttpURLConnection connection;
+        private boolean cancelled;
+        private Runnable cancelHook;
+
+        /**
+         * Creates a new call.
+         * @param readTimeout Read timeout in milliseconds for this request
+         */
+        Call(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        int getReadTimeout() {
+            return readTimeout;
+        }
+
+        /**
+         * The delay the server asked for in the Retry-After header of the
+         * last response, usually with a 429 or 503 status.
+         * @return the delay in milliseconds, or -1 when there was none
+         */
+        long getRetryAfter() {
+            return retryAfter;
+        }
+
+        /**
+         * Aborts the request. A request blocked on the network fails with a
+         * {@link RequestCancelledException}, a request that has not started
+         * yet fails when it does.
+         */
+        void cancel() {
+            Runnable hook;
+            synchronized (this) {
+                cancelled = true;
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                hook = cancelHook;
+            }
+            // Outside the lock, the hook takes the lock of what it wakes up
+            if (hook != null) {
+                hook.run();
+            }
+        }
+
+        /**
+         * Sets what to do when the request is cancelled while it waits for
+         * something other than the network, such as its turn to be sent.
+         * @param hook Wakes up the waiting thread, null to remove it
+         */
+        synchronized void setCancelHook(Runnable hook) {
+            cancelHook = hook;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized void attach(HttpURLConnection conn) throws IOException {
+            if (cancelled) {
+                throw new RequestCancelledException();
+            }
+            connection = conn;
+        }
+
+        private synchronized void detach() {
+            connection = null;
+        }
+    }
+
+    /**
+     * Sends a GET request with the parameters in the query string.
+     * @param <T> Result of the request
+     * @param address URL without query string
+     * @param params Query parameters, encoded as UTF-8
+     * @param headers Additional request headers
+     * @param handler Reads the response body
+     * @return the result of the handler
+     * @throws IOException when the request fails or the handler throws
+     */
+    <T> T get(String address, Map<String, String> params, Map<String, String> headers,
+            ResponseHandler<T> handler) throws IOException {
+        return get(address, params, headers, handler, new Call(AutshumatoSettings.getReadTimeout()));
+    }
+
+    /**
+     * Sends a GET request with the parameters in the query string.
+     * @param <T> Result of the request
+     * @param address URL without query string
+     * @param params Query parameters, encoded as UTF-8
+     * @param headers Additional request headers
+     * @param handler Reads the response body
+     * @param call Handle to abort the request, and its read timeout
+     * @return the result of the handler
+     * @throws IOException when the request fails or the handler throws, and
+     * {@link RequestCancelledException} when it was cancelled
+     */
+    <T> T get(String address, Map<String, String> params, Map<String, String> headers,
+            ResponseHandler<T> handler, Call call) throws IOException {
+        URL url = new URL(address + "?" + buildQuery(params));
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        call.attach(conn);
+        try {
+            return send(conn, headers, handler, call);
+        } catch (IOException ex) {
+            if (call.isCancelled()) {
+                throw new RequestCancelledException();
+            }
+            throw ex;
+        } finally {
+            call.detach();
+        }
+    }
+
+    private <T> T send(HttpURLConnection conn, Map<String, String> headers, ResponseHandler<T> handler,
+            Call call) throws IOException {
+        conn.setRequestMethod("GET");
+        conn.setConnectTimeout(AutshumatoSettings.getConnectTimeout());
+        conn.setReadTimeout(call.readTimeout);
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        conn.setRequestProperty("Connection", "keep-alive");
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            conn.setRequestProperty(h.getKey(), h.getValue());
+        }
+        int status = conn.getResponseCode();
+        call.retryAfter = parseRetryAfter(conn.getHeaderField("Retry-After"));
+        InputStream raw = status >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+        if (raw == null) {
+            return handler.handle(status, new ByteArrayInputStream(new byte[0]));
+        }
+        boolean reusable = false;
+        try {
+            InputStream body = "gzip".equalsIgnoreCase(conn.getContentEncoding()) ? new GZIPInputStream(raw) : raw;
+            T result = handler.handle(status, body);
+            reusable = drain(raw);
+            return result;
+        } finally {
+            raw.close();
+            if (!reusable) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    // Reads what is left of the response, true when it reached the end
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            total += n;
+            if (total > MAX_DRAIN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a Retry-After header, given either in seconds or as a date.
+     * @param value Header value, or null
+     * @return the delay in milliseconds, or -1 when missing or not understood
+     */
+    private static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ex) {
+            // Not a number of seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
+    private static String buildQuery(Map<String, String> params) throws IOException {
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> p : params.entrySet()) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(URLEncoder.encode(p.getKey(), "UTF-8"));
+            query.append('=');
+            query.append(URLEncoder.encode(p.getValue(), "UTF-8"));
+        }
+        return query.toString();
+    }
+}
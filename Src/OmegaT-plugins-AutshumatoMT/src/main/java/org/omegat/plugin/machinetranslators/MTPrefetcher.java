@@ -0,0 +1,203 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.omegat.core.Core;
+import org.omegat.core.data.IProject;
+import org.omegat.core.data.SourceTextEntry;
+import org.omegat.util.Language;
+import org.omegat.util.Log;
+
+/**
+ * Translates the segments after the active one in the background, so their
+ * MT is already cached when the translator gets there.
+ * <p>Prefetching runs on a single low-priority thread and waits while an
+ * interactive request is in progress, so it never competes with the
+ * segment the translator is looking at. Activating another segment cancels
+ * the prefetch of the previous window: the translation in progress is
+ * aborted and segments that were not started yet are skipped.
+ */
+class MTPrefetcher
+{
+    /** Fills the caches for one segment. */
+    interface Fetcher
+    {
+        /**
+         * Starts translating a segment.
+         * @param sLang Source language
+         * @param tLang Target language
+         * @param text Segment text
+         * @return The translation, cancelling it aborts its requests
+         */
+        CompletableFuture<?> fetch(Language sLang, Language tLang, String text);
+    }
+
+    // Poll interval while an interactive request is in progress
+    private static final long YIELD_MILLIS = 20;
+    // Lets the MT pane start the request for the activated segment first,
+    // and skips windows the translator moves past quickly
+    private static final long SETTLE_MILLIS = 250;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Autshumato MT prefetch");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final Fetcher fetcher;
+    // Incremented on every activation, older windows stop when they see it change
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger interactive = new AtomicInteger();
+    // Translation in progress, cancelled with its window
+    private final AtomicReference<CompletableFuture<?>> current = new AtomicReference<>();
+
+    MTPrefetcher(Fetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Marks the start of an interactive request, prefetching pauses until
+     * {@link #interactiveFinished()} is called.
+     */
+    void interactiveStarted() {
+        interactive.incrementAndGet();
+    }
+
+    /** Marks the end of an interactive request. */
+    void interactiveFinished() {
+        interactive.decrementAndGet();
+    }
+
+    /** Stops the current window. */
+    void cancel() {
+        newGeneration();
+    }
+
+    /**
+     * Starts prefetching the segments after the activated one, cancelling
+     * the previous window.
+     * @param entry The activated segment
+     * @param count Number of following segments to translate
+     */
+    void entryActivated(SourceTextEntry entry, int count) {
+        int gen = newGeneration();
+        IProject project = Core.getProject();
+        if (count <= 0 || entry == null || project == null || !project.isProjectLoaded()) {
+            return;
+        }
+        List<SourceTextEntry> all = project.getAllEntries();
+        List<String> texts = new ArrayList<>(count);
+        // Entry numbers start at 1, so the next entry is at this index
+        for (int i = entry.entryNum(); i < all.size() && texts.size() < count; i++) {
+            String text = all.get(i).getSrcText();
+            if (!texts.contains(text)) {
+                texts.add(text);
+            }
+        }
+        if (texts.isEmpty()) {
+            return;
+        }
+        Language sLang = project.getProjectProperties().getSourceLanguage();
+        Language tLang = project.getProjectProperties().getTargetLanguage();
+        executor.execute(() -> {
+            if (generation.get() != gen || !pause(SETTLE_MILLIS)) {
+                return;
+            }
+            for (String text : texts) {
+                if (!waitForTurn(gen)) {
+                    return;
+                }
+                if (!fetch(gen, sLang, tLang, text)) {
+                    return;
+                }
+            }
+        });
+    }
+
+    // Starts a new window and aborts the translation of the previous one
+    private int newGeneration() {
+        int gen = generation.incrementAndGet();
+        CompletableFuture<?> running = current.getAndSet(null);
+        if (running != null) {
+            running.cancel(true);
+        }
+        return gen;
+    }
+
+    // Translates one segment of the window, false when the window ends here
+    private boolean fetch(int gen, Language sLang, Language tLang, String text) {
+        CompletableFuture<?> tr = fetcher.fetch(sLang, tLang, text);
+        current.set(tr);
+        if (generation.get() != gen) {
+            // Cancelled before the translation could be seen
+            tr.cancel(true);
+        }
+        try {
+            tr.get();
+            return true;
+        } catch (CancellationException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            tr.cancel(true);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            // The interactive request will report the problem, if it persists
+            Log.log("Autshumato Translate: prefetch failed, " + ex.getCause().getMessage());
+            return false;
+        } finally {
+            current.compareAndSet(tr, null);
+        }
+    }
+
+    // Waits while interactive requests run, false when the window was cancelled
+    private boolean waitForTurn(int gen) {
+        while (interactive.get() > 0) {
+            if (generation.get() != gen || !pause(YIELD_MILLIS)) {
+                return false;
+            }
+        }
+        return generation.get() == gen;
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
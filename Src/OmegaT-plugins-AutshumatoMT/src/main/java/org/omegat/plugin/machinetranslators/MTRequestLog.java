@@ -0,0 +1,174 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.omegat.util.Log;
+
+/**
+ * Log of the requests sent to the MT service.
+ * <p>Every request makes one record with its language pair, priority,
+ * sizes, time and outcome. Records are written to the OmegaT log by a
+ * background thread, so a translation never waits for the log file; when
+ * the thread falls behind, records are dropped and counted instead. Failed
+ * requests are always written, successful ones only one in every few, and
+ * the texts themselves only at the debug level, shortened.
+ */
+final class MTRequestLog
+{
+    /** Log levels, see {@link AutshumatoSettings#getLogLevel()}. */
+    static final String OFF = "off";
+    static final String ERRORS = "errors";
+    static final String INFO = "info";
+    static final String DEBUG = "debug";
+
+    // Characters of the text and translation written at the debug level
+    private static final int TEXT_LENGTH = 80;
+    private static final int QUEUE_SIZE = 1024;
+
+    private static final BlockingQueue<Record> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static Thread writer;
+
+    private MTRequestLog() {
+    }
+
+    /**
+     * Records a request.
+     * @param pair Language pair
+     * @param priority Priority of the request
+     * @param text Text sent
+     * @param translation Translation received, null when the request failed
+     * @param startNanos {@link System#nanoTime()} when the request started
+     * @param failure Why the request failed, null when it succeeded
+     */
+    static void request(String pair, MTPriority priority, String text, String translation, long startNanos,
+            Throwable failure) {
+        String level = AutshumatoSettings.getLogLevel();
+        if (OFF.equals(level)) {
+            return;
+        }
+        long n = REQUESTS.incrementAndGet();
+        boolean debug = DEBUG.equals(level);
+        if (failure == null || failure instanceof RequestCancelledException) {
+            // Successful or abandoned requests, one in every few
+            if (ERRORS.equals(level) || (!debug && n % AutshumatoSettings.getLogSample() != 0)) {
+                return;
+            }
+        }
+        Record r = new Record(pair, priority, text, translation,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), failure, debug, n);
+        if (!QUEUE.offer(r)) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        startWriter();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(MTRequestLog::write, "Autshumato MT log");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    private static void write() {
+        while (true) {
+            Record r;
+            try {
+                r = QUEUE.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) {
+                Log.log("Autshumato Translate: " + dropped + " request log records dropped");
+            }
+            Log.log(r.format());
+        }
+    }
+
+    // Text shortened to TEXT_LENGTH characters, on one line
+    static String shorten(String s) {
+        if (s == null) {
+            return "";
+        }
+        String line = s.length() > TEXT_LENGTH ? s.substring(0, TEXT_LENGTH) + "..." : s;
+        return line.replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static final class Record
+    {
+        final String pair;
+        final MTPriority priority;
+        final String text;
+        final String translation;
+        final long millis;
+        final Throwable failure;
+        final boolean debug;
+        final long number;
+
+        Record(String pair, MTPriority priority, String text, String translation, long millis,
+                Throwable failure, boolean debug, long number) {
+            this.pair = pair;
+            this.priority = priority;
+            this.text = text;
+            this.translation = translation;
+            this.millis = millis;
+            this.failure = failure;
+            this.debug = debug;
+            this.number = number;
+        }
+
+        // Formatted on the writer thread, off the request path
+        String format() {
+            StringBuilder sb = new StringBuilder(debug ? 256 : 128);
+            sb.append("Autshumato Translate: request ").append(number)
+                    .append(" pair=").append(pair)
+                    .append(" priority=").append(priority)
+                    .append(" chars=").append(text.length())
+                    .append(" ms=").append(millis);
+            if (failure == null) {
+                sb.append(" result=ok translated=").append(translation.length());
+            } else {
+                sb.append(" result=").append(failure.getClass().getSimpleName())
+                        .append(" message=\"").append(shorten(failure.getMessage())).append('"');
+            }
+            if (debug) {
+                sb.append(" text=\"").append(shorten(text)).append('"');
+                if (translation != null) {
+                    sb.append(" translation=\"").append(shorten(translation)).append('"');
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
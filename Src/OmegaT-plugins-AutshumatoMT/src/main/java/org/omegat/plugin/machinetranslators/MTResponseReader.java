@@ -0,0 +1,295 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader for the JSON envelope returned by the Autshumato MT
+ * service, <code>{"_status":200,"_message":"..."}</code>.
+ * <p>The envelope is read straight from the response stream: only the
+ * <code>_status</code> and <code>_message</code> fields are kept, any other
+ * field is skipped without being stored, and reading stops as soon as both
+ * fields have been seen. The message is JSON-unescaped while it is read and
+ * its HTML entities are decoded by {@link ResponseDecoder}.
+ */
+final class MTResponseReader
+{
+    private static final int HTTP_OK = 200;
+    private static final String STATUS = "_status";
+    private static final String MESSAGE = "_message";
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private int pos;
+    private int limit;
+    private final StringBuilder text = new StringBuilder(256);
+
+    private Integer status;
+    private String message;
+
+    private MTResponseReader(InputStream in) {
+        this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the translation from a response of the service.
+     * @param httpStatus HTTP status of the response
+     * @param body Response body
+     * @return the translated text
+     * @throws MTServiceException when the service reports an error or the
+     * response is not a valid envelope
+     * @throws IOException when reading the response fails
+     */
+    static String readTranslation(int httpStatus, InputStream body) throws IOException {
+        MTResponseReader reader = new MTResponseReader(body);
+        try {
+            reader.readEnvelope();
+        } catch (MTServiceException ex) {
+            if (httpStatus != HTTP_OK) {
+                throw new MTServiceException(httpStatus, "HTTP error");
+            }
+            throw ex;
+        }
+        if (httpStatus != HTTP_OK) {
+            throw new MTServiceException(httpStatus, reader.message != null ? reader.message : "HTTP error");
+        }
+        if (reader.status == null || reader.message == null) {
+            throw new MTServiceException(MTServiceException.MALFORMED_RESPONSE,
+                    "Autshumato MT response without " + (reader.status == null ? STATUS : MESSAGE));
+        }
+        if (reader.status != HTTP_OK) {
+            throw new MTServiceException(reader.status, reader.message);
+        }
+        return reader.message;
+    }
+
+    // Reads fields until both the status and the message are known
+    private void readEnvelope() throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            return;
+        }
+        while (true) {
+            expect('"');
+            readString();
+            expect(':');
+            if (STATUS.contentEquals(text)) {
+                status = readStatus();
+            } else if (MESSAGE.contentEquals(text) && peekToken() == '"') {
+                next();
+                readString();
+                message = ResponseDecoder.decodeEntities(text);
+            } else {
+                skipValue();
+            }
+            if (status != null && message != null) {
+                return;
+            }
+            int c = nextToken();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw malformed();
+            }
+        }
+    }
+
+    private Integer readStatus() throws IOException {
+        int c = peekToken();
+        if (c == '"') {
+            next();
+            readString();
+            try {
+                return Integer.valueOf(text.toString().trim());
+            } catch (NumberFormatException ex) {
+                throw malformed();
+            }
+        }
+        int value = 0;
+        int digits = 0;
+        while ((c = peek()) >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            digits++;
+            next();
+        }
+        if (digits == 0 || digits > 9) {
+            throw malformed();
+        }
+        return value;
+    }
+
+    // Reads the rest of a string, after the opening quote, into text
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c < 0) {
+                throw malformed();
+            }
+            if (c != '\\') {
+                text.append((char) c);
+                continue;
+            }
+            c = next();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    text.append((char) c);
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int d = Character.digit(next(), 16);
+                        if (d < 0) {
+                            throw malformed();
+                        }
+                        value = (value << 4) | d;
+                    }
+                    text.append((char) value);
+                    break;
+                default:
+                    throw malformed();
+            }
+        }
+    }
+
+    // Skips a value of any type without keeping it
+    private void skipValue() throws IOException {
+        int c = nextToken();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c < 0) {
+                    throw malformed();
+                } else if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else if (c < 0) {
+            throw malformed();
+        } else {
+            // Number or literal, ends at the next delimiter
+            while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                next();
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = next()) != '"') {
+            if (c < 0) {
+                throw malformed();
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextToken() != expected) {
+            throw malformed();
+        }
+    }
+
+    // Next character that is not whitespace, consumed
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    // Next character that is not whitespace, not consumed
+    private int peekToken() throws IOException {
+        int c;
+        while (isWhitespace(c = peek())) {
+            next();
+        }
+        return c;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            pos++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos];
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static MTServiceException malformed() {
+        return new MTServiceException(MTServiceException.MALFORMED_RESPONSE,
+                "Malformed response from the Autshumato MT service");
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.IOException;
+
+/**
+ * Error reported by the Autshumato MT service, either through the HTTP
+ * status of the response or through the <code>_status</code> field of the
+ * returned JSON envelope.
+ */
+public class MTServiceException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Status used when the response could not be understood at all. */
+    public static final int MALFORMED_RESPONSE = -1;
+
+    /** Status used when the request was not sent because the service is down. */
+    public static final int SERVICE_UNAVAILABLE = -2;
+
+    private final int status;
+
+    /**
+     * Creates a new exception.
+     * @param status HTTP or service status, {@link #MALFORMED_RESPONSE} or
+     * {@link #SERVICE_UNAVAILABLE}
+     * @param message Message returned by the service or describing the failure
+     */
+    public MTServiceException(int status, String message) {
+        super(status < 0 ? message : "Autshumato MT service error " + status + ": " + message);
+        this.status = status;
+    }
+
+    /**
+     * Status reported for the failed request.
+     * @return the HTTP or service status, {@link #MALFORMED_RESPONSE} or
+     * {@link #SERVICE_UNAVAILABLE}
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.omegat.util.Language;
+
+/**
+ * Writes machine translations to a TMX 1.4 file as they arrive.
+ * <p>The document is written to a <code>.part</code> file next to the
+ * target, which replaces the target once the document is complete. OmegaT
+ * only reads <code>.tmx</code> files, so an unfinished document is never
+ * loaded as a translation memory.
+ */
+class MTTmxWriter implements Closeable
+{
+    private static final String CREATION_ID = "Autshumato MT";
+
+    private final File target;
+    private final File part;
+    private final OutputStream out;
+    private final XMLStreamWriter xml;
+    private final String sourceLang;
+    private final String targetLang;
+    private final String date;
+    private int count;
+
+    private MTTmxWriter(File target, Language sLang, Language tLang) throws IOException, XMLStreamException {
+        this.target = target;
+        this.part = new File(target.getPath() + ".part");
+        this.sourceLang = sLang.getLanguage();
+        this.targetLang = tLang.getLanguage();
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.date = format.format(new Date());
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        out = new BufferedOutputStream(new FileOutputStream(part));
+        xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+    }
+
+    /**
+     * Starts a new document.
+     * @param target The TMX file, replaced when the document is finished
+     * @param sLang Source language
+     * @param tLang Target language
+     * @return the writer
+     * @throws IOException when the file cannot be created
+     */
+    static MTTmxWriter create(File target, Language sLang, Language tLang) throws IOException {
+        MTTmxWriter w = null;
+        try {
+            w = new MTTmxWriter(target, sLang, tLang);
+            w.xml.writeStartDocument("UTF-8", "1.0");
+            w.xml.writeCharacters("\n");
+            w.xml.writeDTD("<!DOCTYPE tmx SYSTEM \"tmx14.dtd\">");
+            w.xml.writeCharacters("\n");
+            w.xml.writeStartElement("tmx");
+            w.xml.writeAttribute("version", "1.4");
+            w.xml.writeCharacters("\n  ");
+            w.xml.writeEmptyElement("header");
+            w.xml.writeAttribute("creationtool", CREATION_ID);
+            w.xml.writeAttribute("creationtoolversion", "1");
+            w.xml.writeAttribute("segtype", "sentence");
+            w.xml.writeAttribute("o-tmf", "OmegaT TMX");
+            w.xml.writeAttribute("adminlang", "EN-US");
+            w.xml.writeAttribute("srclang", w.sourceLang);
+            w.xml.writeAttribute("datatype", "plaintext");
+            w.xml.writeCharacters("\n  ");
+            w.xml.writeStartElement("body");
+            return w;
+        } catch (XMLStreamException ex) {
+            if (w != null) {
+                w.close();
+            }
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Adds a translation unit and flushes it to the file.
+     * @param source Source text
+     * @param translation Machine translation
+     * @throws IOException when the file cannot be written
+     */
+    synchronized void write(String source, String translation) throws IOException {
+        try {
+            xml.writeCharacters("\n    ");
+            xml.writeStartElement("tu");
+            writeVariant(sourceLang, source, false);
+            writeVariant(targetLang, translation, true);
+            xml.writeCharacters("\n    ");
+            xml.writeEndElement();
+            xml.flush();
+            out.flush();
+            count++;
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Completes the document and moves it over the target file.
+     * @throws IOException when the file cannot be written or moved
+     */
+    synchronized void finish() throws IOException {
+        try {
+            xml.writeCharacters("\n  ");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            out.close();
+        }
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Closes the file, leaving an unfinished document in the
+     * <code>.part</code> file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException ex) {
+            // The stream below is closed anyway
+        }
+        out.close();
+    }
+
+    private void writeVariant(String lang, String text, boolean translated) throws XMLStreamException {
+        xml.writeCharacters("\n      ");
+        xml.writeStartElement("tuv");
+        xml.writeAttribute("xml", XMLConstants.XML_NS_URI, "lang", lang);
+        if (translated) {
+            xml.writeAttribute("creationid", CREATION_ID);
+            xml.writeAttribute("creationdate", date);
+        }
+        xml.writeCharacters("\n        ");
+        xml.writeStartElement("seg");
+        xml.writeCharacters(clean(text));
+        xml.writeEndElement();
+        xml.writeCharacters("\n      ");
+        xml.writeEndElement();
+    }
+
+    // Leaves out the characters XML 1.0 does not allow
+    private static String clean(String text) {
+        StringBuilder sb = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean valid = c >= 0x20 ? c != 0xFFFE && c != 0xFFFF : c == '\t' || c == '\n' || c == '\r';
+            if (!valid && sb == null) {
+                sb = new StringBuilder(text.length()).append(text, 0, i);
+            } else if (valid && sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? text : sb.toString();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds earlier translated texts that are nearly the same as a new text,
+ * such as a segment of a revised edition that differs in a few words.
+ * <p>Texts are compared as sets of words. Each text gets a MinHash
+ * signature, and locality-sensitive hashing puts texts whose signatures
+ * agree in a band of rows into the same bucket, so a lookup only compares
+ * the texts that share a bucket instead of all of them. Those candidates are
+ * then compared on their exact word sets. The index holds a fixed number of
+ * texts and forgets the oldest first.
+ */
+final class NearDuplicateIndex
+{
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final long[] SEEDS = new long[BANDS * ROWS];
+    static {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < SEEDS.length; i++) {
+            x += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(x);
+        }
+    }
+
+    private final int capacity;
+    // Language pair and text, to the entry, oldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+
+    /**
+     * @param capacity Number of texts kept
+     */
+    NearDuplicateIndex(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a translated text, replacing an earlier translation of it.
+     * @param pair Language pair
+     * @param text Text as sent to the service
+     * @param translation Its translation
+     */
+    synchronized void add(String pair, String text, String translation) {
+        long[] words = words(text);
+        if (words.length == 0) {
+            return;
+        }
+        String id = pair + '\t' + text;
+        remove(entries.remove(id));
+        Entry e = new Entry(text, translation, words, bands(pair, words));
+        entries.put(id, e);
+        for (long band : e.bands) {
+            buckets.computeIfAbsent(band, k -> new ArrayList<>(1)).add(e);
+        }
+        if (entries.size() > capacity) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            Entry old = oldest.next();
+            oldest.remove();
+            remove(old);
+        }
+    }
+
+    /**
+     * Finds the most similar text that was translated before.
+     * @param pair Language pair
+     * @param text Text as sent to the service
+     * @param minSimilarity Lowest share of words the texts must have in
+     *        common, from 0 to 1
+     * @return the most similar text, or null when none is similar enough;
+     *         never the text itself
+     */
+    synchronized Match find(String pair, String text, double minSimilarity) {
+        long[] words = words(text);
+        if (words.length == 0) {
+            return null;
+        }
+        Entry best = null;
+        double bestSimilarity = minSimilarity;
+        for (long band : bands(pair, words)) {
+            List<Entry> bucket = buckets.get(band);
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry e : bucket) {
+                if (e == best || e.text.equals(text)) {
+                    continue;
+                }
+                double similarity = jaccard(words, e.words);
+                if (similarity >= bestSimilarity) {
+                    best = e;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        return best == null ? null : new Match(best.text, best.translation, bestSimilarity);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Entry e) {
+        if (e == null) {
+            return;
+        }
+        for (long band : e.bands) {
+            List<Entry> bucket = buckets.get(band);
+            bucket.remove(e);
+            if (bucket.isEmpty()) {
+                buckets.remove(band);
+            }
+        }
+    }
+
+    /**
+     * Hashes of the distinct lower case words of a text, sorted.
+     */
+    static long[] words(String text) {
+        long[] hashes = new long[16];
+        int n = 0;
+        long h = 0;
+        boolean inWord = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                h = h * 31 + Character.toLowerCase(c);
+                inWord = true;
+            } else if (inWord) {
+                if (n == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, n * 2);
+                }
+                hashes[n++] = mix(h);
+                h = 0;
+                inWord = false;
+            }
+        }
+        Arrays.sort(hashes, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || hashes[distinct - 1] != hashes[i]) {
+                hashes[distinct++] = hashes[i];
+            }
+        }
+        return Arrays.copyOf(hashes, distinct);
+    }
+
+    // MinHash signature, one bucket key per band of rows
+    private static long[] bands(String pair, long[] words) {
+        long[] bands = new long[BANDS];
+        long pairHash = pair.hashCode();
+        for (int b = 0; b < BANDS; b++) {
+            long band = mix(pairHash * 31 + b);
+            for (int r = 0; r < ROWS; r++) {
+                long seed = SEEDS[b * ROWS + r];
+                long min = Long.MAX_VALUE;
+                for (long w : words) {
+                    min = Math.min(min, mix(w ^ seed));
+                }
+                band = mix(band ^ min);
+            }
+            bands[b] = band;
+        }
+        return bands;
+    }
+
+    // Share of distinct words two texts have in common
+    static double jaccard(long[] a, long[] b) {
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    // Final step of MurmurHash3: spreads the bits of a hash
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** An earlier translated text similar to the one looked up. */
+    static final class Match
+    {
+        final String text;
+        final String translation;
+        final double similarity;
+
+        Match(String text, String translation, double similarity) {
+            this.text = text;
+            this.translation = translation;
+            this.similarity = similarity;
+        }
+    }
+
+    private static final class Entry
+    {
+        final String text;
+        final String translation;
+        final long[] words;
+        final long[] bands;
+
+        Entry(String text, String translation, long[] words, long[] bands) {
+            this.text = text;
+            this.translation = translation;
+            this.words = words;
+            this.bands = bands;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+/**
+ * Recognises segments that need no translation: segments made only of
+ * numbers, URLs, e-mail addresses, codes, punctuation and OmegaT tags,
+ * such as the cells of a table of figures.
+ * <p>The text is scanned once, word by word, without creating any objects,
+ * and the scan stops at the first word that could be translated, which
+ * for ordinary text is the first word.
+ */
+final class NoTranslateFilter
+{
+    private NoTranslateFilter() {
+    }
+
+    /**
+     * Whether a segment can be used as its own translation.
+     * @param text Segment text, with OmegaT tags
+     * @return true when no word of the segment is translatable
+     */
+    static boolean isUntranslatable(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isSpace(c)) {
+                i++;
+                continue;
+            }
+            int tagEnd = tagEnd(text, i);
+            if (tagEnd > 0) {
+                i = tagEnd;
+                continue;
+            }
+            int end = i;
+            while (end < length && !isSpace(text.charAt(end)) && tagEnd(text, end) < 0) {
+                end++;
+            }
+            if (!isUntranslatableWord(text, i, end)) {
+                return false;
+            }
+            i = end;
+        }
+        return true;
+    }
+
+    // Java does not count the no-break space as whitespace
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || c == '\u00A0';
+    }
+
+    /**
+     * Whether a word is a number, URL, e-mail address, code or punctuation.
+     */
+    private static boolean isUntranslatableWord(String text, int start, int end) {
+        if (text.regionMatches(true, start, "http://", 0, 7) || text.regionMatches(true, start, "https://", 0, 8)
+                || text.regionMatches(true, start, "ftp://", 0, 6) || text.regionMatches(true, start, "www.", 0, 4)) {
+            return true;
+        }
+        int letters = 0;
+        int digits = 0;
+        int at = -1;
+        int lastDigit = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                letters++;
+            } else if (Character.isDigit(c)) {
+                digits++;
+                lastDigit = i;
+            } else if (c == '@' && at < 0) {
+                at = i;
+            }
+        }
+        if (letters == 0) {
+            // Numbers, amounts, dates and punctuation
+            return true;
+        }
+        if (at > start && text.lastIndexOf('.', end - 1) > at + 1) {
+            // E-mail address
+            return true;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        // Letters and digits make a code (A4, COVID-19, R250), except for
+        // ordinals (1st, 22nd), which are translated
+        return !isOrdinal(text, lastDigit + 1, end);
+    }
+
+    private static boolean isOrdinal(String text, int suffix, int end) {
+        if (end - suffix != 2) {
+            return false;
+        }
+        return text.regionMatches(true, suffix, "st", 0, 2) || text.regionMatches(true, suffix, "nd", 0, 2)
+                || text.regionMatches(true, suffix, "rd", 0, 2) || text.regionMatches(true, suffix, "th", 0, 2);
+    }
+
+    /**
+     * End of the OmegaT tag at a position, as matched by
+     * <code>PatternConsts.OMEGAT_TAG</code>, such as &lt;b0&gt;,
+     * &lt;/f12&gt; or &lt;x3/&gt;.
+     * @return the index after the tag, or -1 when there is no tag
+     */
+    private static int tagEnd(String text, int start) {
+        int length = text.length();
+        if (text.charAt(start) != '<') {
+            return -1;
+        }
+        int i = start + 1;
+        if (i < length && text.charAt(i) == '/') {
+            i++;
+        }
+        int letters = i;
+        while (i < length && isAsciiLetter(text.charAt(i))) {
+            i++;
+        }
+        int digits = i;
+        while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == digits || digits == letters) {
+            return -1;
+        }
+        if (i < length && text.charAt(i) == '/') {
+            i++;
+        }
+        return i < length && text.charAt(i) == '>' ? i + 1 : -1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A source segment made ready for the MT service: checked for text that
+ * needs no translation, with its tags replaced, and with its normalized
+ * key. Preparing does not depend on the target language, so a segment set
+ * translated into several languages is prepared once.
+ */
+final class PreparedSegment
+{
+    private final String text;
+    private final TagPlaceholders tags;
+    private final String key;
+
+    private PreparedSegment(String text, TagPlaceholders tags, String key) {
+        this.text = text;
+        this.tags = tags;
+        this.key = key;
+    }
+
+    /**
+     * Prepares a segment.
+     * @param text Segment text with OmegaT tags
+     * @return the prepared segment
+     */
+    static PreparedSegment prepare(String text) {
+        if (NoTranslateFilter.isUntranslatable(text)) {
+            return new PreparedSegment(text, null, null);
+        }
+        TagPlaceholders tags = TagPlaceholders.prepare(text, AutshumatoSettings.isKeepingTags());
+        return new PreparedSegment(text, tags, SegmentNormalizer.key(tags.getText()));
+    }
+
+    /**
+     * Prepares segments.
+     * @param texts Segment texts
+     * @return the prepared segments, in the same order
+     */
+    static List<PreparedSegment> prepareAll(Collection<String> texts) {
+        List<PreparedSegment> prepared = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            prepared.add(prepare(text));
+        }
+        return prepared;
+    }
+
+    /**
+     * Source text of the segment.
+     * @return the text with OmegaT tags
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Whether the segment is its own translation, see
+     * {@link NoTranslateFilter}.
+     * @return true when nothing needs to be sent
+     */
+    boolean isUntranslatable() {
+        return tags == null;
+    }
+
+    /**
+     * Text to send to the service.
+     * @return the text with placeholders or without tags, or null when the
+     *         segment is untranslatable
+     */
+    String getRequestText() {
+        return tags == null ? null : tags.getText();
+    }
+
+    /**
+     * Key shared by segments that only differ in numbers or spacing, see
+     * {@link SegmentNormalizer#key(String)}.
+     * @return the key, or null when the segment is untranslatable
+     */
+    String getNormalizedKey() {
+        return key;
+    }
+
+    /**
+     * Turns a translation of {@link #getRequestText()} into the translation
+     * of the segment, with its tags and their spacing.
+     * @param translation Translation received for the request text
+     * @return the translation of the segment
+     */
+    String restore(String translation) {
+        if (tags == null) {
+            return text;
+        }
+        return TagSpaceReconciler.reconcile(text, tags.restore(translation));
+    }
+}
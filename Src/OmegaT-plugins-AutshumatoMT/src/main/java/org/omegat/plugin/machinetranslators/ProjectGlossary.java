@@ -0,0 +1,228 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.omegat.gui.glossary.GlossaryEntry;
+import org.omegat.gui.glossary.GlossaryReaderTSV;
+import org.omegat.util.Log;
+
+/**
+ * The glossary of a project, as a {@link GlossaryMatcher}.
+ * <p>The glossary files are read when the project is loaded. Afterwards the
+ * folder is checked at most every few seconds; only files that were added,
+ * changed or removed are read again. Every file has an automaton of its
+ * own, so a change only rebuilds the automaton of that file, and the
+ * matcher is the {@link GlossaryMatcher#union union} of the files. The
+ * writeable glossary has priority: its target terms come first.
+ * <p>Reading the files and building the automata happen on a background
+ * thread. The translating threads only ever take the matcher that was
+ * last built, without waiting for a check or a rebuild.
+ */
+final class ProjectGlossary
+{
+    // Time between checks for changed glossary files
+    private static final long CHECK_INTERVAL_MS = 5000;
+    // Tab separated glossary files, as read by OmegaT
+    private static final String[] EXTENSIONS = { ".txt", ".utf8", ".tab", ".tsv" };
+
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Autshumato MT glossary");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File root;
+    private final File writeable;
+    // Entries of each file read, sorted by path so the order is stable.
+    // Only used on the refresher thread.
+    private final Map<File, GlossaryFile> files = new TreeMap<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private volatile GlossaryMatcher matcher = GlossaryMatcher.EMPTY;
+    private volatile long lastCheck;
+
+    /**
+     * @param root The project's glossary folder
+     * @param writeable The project's writeable glossary file
+     */
+    ProjectGlossary(File root, File writeable) {
+        this.root = root;
+        this.writeable = writeable;
+    }
+
+    /**
+     * The automaton last built, empty until the files were first read.
+     * Starts a check in the background when the last one is a few seconds
+     * old.
+     * @return the matcher
+     */
+    GlossaryMatcher getMatcher() {
+        if (System.currentTimeMillis() - lastCheck >= CHECK_INTERVAL_MS) {
+            refresh();
+        }
+        return matcher;
+    }
+
+    /**
+     * Checks the glossary files in the background, unless a check is
+     * already waiting or running.
+     */
+    void refresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            REFRESHER.execute(() -> {
+                try {
+                    check();
+                } finally {
+                    refreshPending.set(false);
+                }
+            });
+        }
+    }
+
+    // Reads the files that changed and combines the automata again when there were any
+    private void check() {
+        lastCheck = System.currentTimeMillis();
+        Set<File> current = new HashSet<>();
+        collect(root, current);
+        if (writeable.isFile()) {
+            current.add(writeable);
+        }
+        boolean changed = files.keySet().retainAll(current);
+        long start = System.currentTimeMillis();
+        int read = 0;
+        for (File f : current) {
+            GlossaryFile known = files.get(f);
+            if (known == null || known.modified != f.lastModified() || known.length != f.length()) {
+                files.put(f, read(f));
+                read++;
+                changed = true;
+            }
+        }
+        if (changed) {
+            // The writeable glossary first, the others in path order
+            List<GlossaryMatcher> parts = new ArrayList<>(files.size());
+            GlossaryFile priority = files.get(writeable);
+            if (priority != null) {
+                parts.add(priority.matcher);
+            }
+            for (Map.Entry<File, GlossaryFile> e : files.entrySet()) {
+                if (!e.getKey().equals(writeable)) {
+                    parts.add(e.getValue().matcher);
+                }
+            }
+            matcher = GlossaryMatcher.union(parts);
+            Log.log("Autshumato Translate: glossary of " + matcher.size() + " terms, " + read + " of "
+                    + files.size() + " files read in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private static void collect(File dir, Set<File> found) {
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+        for (File f : list) {
+            if (f.isDirectory()) {
+                collect(f, found);
+            } else if (isGlossaryFile(f.getName())) {
+                found.add(f);
+            }
+        }
+    }
+
+    private static boolean isGlossaryFile(String name) {
+        String lower = name.toLowerCase();
+        for (String ext : EXTENSIONS) {
+            if (lower.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reads a file and builds its automaton
+    private GlossaryFile read(File f) {
+        long modified = f.lastModified();
+        long length = f.length();
+        Map<String, List<String>> terms = new LinkedHashMap<>();
+        try {
+            List<GlossaryEntry> entries = GlossaryReaderTSV.read(f, f.equals(writeable));
+            if (entries != null) {
+                add(terms, entries);
+            }
+        } catch (Exception ex) {
+            Log.log("Autshumato Translate: could not read glossary " + f);
+            Log.log(ex);
+        }
+        return new GlossaryFile(modified, length, GlossaryMatcher.build(terms));
+    }
+
+    // Source terms to their target terms, in the order of the file
+    private static void add(Map<String, List<String>> terms, List<GlossaryEntry> entries) {
+        for (GlossaryEntry entry : entries) {
+            String source = GlossaryMatcher.lowerCase(entry.getSrcText().trim());
+            String target = entry.getLocText().trim();
+            if (source.isEmpty() || target.isEmpty()) {
+                continue;
+            }
+            List<String> targets = terms.computeIfAbsent(source, k -> new ArrayList<>(1));
+            if (!containsIgnoreCase(targets, target)) {
+                targets.add(target);
+            }
+        }
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String s) {
+        for (String t : list) {
+            if (t.equalsIgnoreCase(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class GlossaryFile
+    {
+        final long modified;
+        final long length;
+        final GlossaryMatcher matcher;
+
+        GlossaryFile(long modified, long length, GlossaryMatcher matcher) {
+            this.modified = modified;
+            this.length = length;
+            this.matcher = matcher;
+        }
+    }
+}
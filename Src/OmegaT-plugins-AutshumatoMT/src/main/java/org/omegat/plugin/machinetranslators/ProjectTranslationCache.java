@@ -0,0 +1,301 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import org.omegat.util.Log;
+
+/**
+ * MT results shared between the members of a team project.
+ * <p>The cache lives in a folder inside the project's internal
+ * <code>omegat/</code> folder. Every installation only ever appends to its own
+ * file in that folder, so two translators never write to the same file and
+ * the repository can merge their changes without conflicts. Each line holds
+ * one translation and ends with a checksum; lines that are incomplete or
+ * were damaged by a merge are ignored when the files are read.
+ * <p>When the files are loaded, translations of the same request are
+ * deduplicated and the most recent one is kept.
+ * <p>OmegaT's team synchronisation only commits the project's translation
+ * memory and writeable glossary. The folder is shared only when the project's
+ * repository mapping includes it and each translator commits their own file
+ * to the repository themselves.
+ */
+class ProjectTranslationCache implements Closeable
+{
+    /** Folder inside the project's internal folder. */
+    static final String DIR = "autshumato-mt";
+    private static final String EXT = ".tsv";
+
+    private final File dir;
+    private final File ownFile;
+    private final Map<TranslationKey, Line> entries = new HashMap<>();
+    private Writer writer;
+
+    private ProjectTranslationCache(File dir, File ownFile) {
+        this.dir = dir;
+        this.ownFile = ownFile;
+    }
+
+    /**
+     * Loads the shared translations of a project.
+     * @param projectInternal The project's internal folder
+     * @param writerId Name of the file this installation appends to
+     * @return the loaded cache
+     */
+    static ProjectTranslationCache load(File projectInternal, String writerId) {
+        File dir = new File(projectInternal, DIR);
+        ProjectTranslationCache c = new ProjectTranslationCache(dir, new File(dir, writerId + EXT));
+        File[] files = c.dir.listFiles((d, n) -> n.endsWith(EXT));
+        if (files != null) {
+            for (File f : files) {
+                c.read(f);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Loads the translations of a single file, which new translations are
+     * appended to. Used as the checkpoint journal of a batch job.
+     * @param file The file, created on the first translation
+     * @return the loaded cache
+     */
+    static ProjectTranslationCache open(File file) {
+        ProjectTranslationCache c = new ProjectTranslationCache(file.getAbsoluteFile().getParentFile(), file);
+        if (file.isFile()) {
+            c.read(file);
+        }
+        return c;
+    }
+
+    /**
+     * Looks up a shared translation.
+     * @param key Request key
+     * @return the translation or null when no team member requested it yet
+     */
+    synchronized String get(TranslationKey key) {
+        Line line = entries.get(key);
+        return line == null ? null : line.translation;
+    }
+
+    /**
+     * Shares a translation with the team, unless the same translation is
+     * already shared.
+     * @param key Request key
+     * @param translation Translation received from the service
+     */
+    synchronized void put(TranslationKey key, String translation) {
+        Line existing = entries.get(key);
+        if (existing != null && existing.translation.equals(translation)) {
+            return;
+        }
+        Line line = new Line(translation, System.currentTimeMillis());
+        entries.put(key, line);
+        try {
+            if (writer == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Cannot create " + dir);
+                }
+                writer = new OutputStreamWriter(new FileOutputStream(ownFile, true), StandardCharsets.UTF_8);
+            }
+            // A single write per line, flushed, keeps every line whole
+            writer.write(format(key, line));
+            writer.flush();
+        } catch (IOException ex) {
+            Log.log("Autshumato Translate: could not write the project MT cache");
+            Log.log(ex);
+        }
+    }
+
+    /**
+     * File this installation appends to, which has to be committed to the
+     * project's repository for the rest of the team to see it.
+     * @return the file of this installation
+     */
+    File getOwnFile() {
+        return ownFile;
+    }
+
+    /**
+     * Passes every translation to the action, outside the lock of the
+     * cache, so the cache stays usable while the action runs.
+     * @param action Receives the request key and its translation
+     */
+    void forEach(BiConsumer<TranslationKey, String> action) {
+        Map<TranslationKey, String> copy = new HashMap<>();
+        synchronized (this) {
+            for (Map.Entry<TranslationKey, Line> e : entries.entrySet()) {
+                copy.put(e.getKey(), e.getValue().translation);
+            }
+        }
+        copy.forEach(action);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                Log.log(ex);
+            }
+            writer = null;
+        }
+    }
+
+    private void read(File f) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String s;
+            while ((s = in.readLine()) != null) {
+                parse(s);
+            }
+        } catch (IOException ex) {
+            Log.log("Autshumato Translate: could not read " + f);
+            Log.log(ex);
+        }
+    }
+
+    // Adds the line if it is valid and newer than what is already loaded
+    private void parse(String s) {
+        String[] fields = s.split("\t", -1);
+        if (fields.length != 6) {
+            return;
+        }
+        int last = s.lastIndexOf('\t');
+        if (!fields[5].equals(checksum(s.substring(0, last)))) {
+            return;
+        }
+        long time;
+        try {
+            time = Long.parseLong(fields[0]);
+        } catch (NumberFormatException ex) {
+            return;
+        }
+        TranslationKey key = new TranslationKey(unescape(fields[1]), unescape(fields[2]), unescape(fields[3]));
+        Line existing = entries.get(key);
+        if (existing == null || existing.time < time) {
+            entries.put(key, new Line(unescape(fields[4]), time));
+        }
+    }
+
+    // time, source, target, text, translation, checksum
+    private static String format(TranslationKey key, Line line) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(line.time).append('\t');
+        escape(sb, key.getSource()).append('\t');
+        escape(sb, key.getTarget()).append('\t');
+        escape(sb, key.getText()).append('\t');
+        escape(sb, line.translation);
+        String content = sb.toString();
+        sb.append('\t').append(checksum(content)).append('\n');
+        return sb.toString();
+    }
+
+    private static String checksum(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static StringBuilder escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Line
+    {
+        final String translation;
+        final long time;
+
+        Line(String translation, long time) {
+            this.translation = translation;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.PriorityQueue;
+
+/**
+ * Paces the requests sent to one endpoint.
+ * <p>Requests take a token from a bucket refilled at the configured rate
+ * and wait in a queue ordered by {@link MTPriority}, so a waiting
+ * interactive request is sent before any prefetch or batch request that
+ * queued earlier. When the server answers that it is overloaded, the
+ * endpoint is paused for the time it asked for, or for an exponentially
+ * growing time when it did not say, instead of being retried at once.
+ */
+class RequestLimiter
+{
+    // Pause after the first overload answer without Retry-After
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 60000;
+    // Longest pause accepted from a Retry-After header
+    private static final long MAX_RETRY_AFTER = 5 * 60000;
+
+    /** A request waiting for its turn. */
+    private static final class Ticket implements Comparable<Ticket>
+    {
+        final MTPriority priority;
+        final long order;
+
+        Ticket(MTPriority priority, long order) {
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Ticket o) {
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+    private long issued;
+    private double tokens = -1;
+    private long refilledAt;
+    private long pausedUntil;
+    private long backoff;
+
+    /**
+     * Waits until the request may be sent. A request cancelled while it
+     * waits leaves the queue at once.
+     * @param priority Priority of the request
+     * @param call The request, whose cancellation ends the wait
+     * @throws InterruptedException when the waiting thread is interrupted
+     * @throws RequestCancelledException when the request was cancelled
+     */
+    synchronized void acquire(MTPriority priority, MTHttpClient.Call call)
+            throws InterruptedException, RequestCancelledException {
+        Ticket ticket = new Ticket(priority, issued++);
+        waiting.add(ticket);
+        call.setCancelHook(this::wakeUp);
+        try {
+            while (true) {
+                if (call.isCancelled()) {
+                    throw new RequestCancelledException();
+                }
+                if (waiting.peek() != ticket) {
+                    // Woken when a request ahead of this one leaves the queue
+                    wait();
+                    continue;
+                }
+                long delay = takeToken();
+                if (delay == 0) {
+                    return;
+                }
+                wait(delay);
+            }
+        } finally {
+            call.setCancelHook(null);
+            waiting.remove(ticket);
+            notifyAll();
+        }
+    }
+
+    private synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Records an answer from the server, ending the growing pauses.
+     */
+    synchronized void onSuccess() {
+        backoff = 0;
+    }
+
+    /**
+     * Pauses the endpoint after the server answered that it is overloaded.
+     * @param retryAfter Delay the server asked for in milliseconds, or -1
+     */
+    synchronized void onOverloaded(long retryAfter) {
+        long delay;
+        if (retryAfter >= 0) {
+            delay = Math.min(retryAfter, MAX_RETRY_AFTER);
+        } else {
+            backoff = backoff == 0 ? MIN_BACKOFF : Math.min(MAX_BACKOFF, backoff * 2);
+            delay = backoff;
+        }
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+        tokens = 0;
+    }
+
+    /**
+     * Ends the pause at once, waiting requests are sent in their turn.
+     */
+    synchronized void resume() {
+        pausedUntil = 0;
+        notifyAll();
+    }
+
+    /**
+     * Time before the endpoint accepts requests again.
+     * @return the delay in milliseconds, 0 when it is not paused
+     */
+    synchronized long getPause() {
+        return Math.max(0, pausedUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Number of requests waiting for their turn.
+     * @return the length of the queue
+     */
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Takes a token when one is available.
+     * @return 0 when a token was taken, else the time to wait in milliseconds
+     */
+    private long takeToken() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntil) {
+            return pausedUntil - now;
+        }
+        int rate = AutshumatoSettings.getRequestRate();
+        if (rate == 0) {
+            return 0;
+        }
+        // The bucket holds one second of requests
+        if (tokens < 0) {
+            tokens = rate;
+        } else {
+            tokens = Math.min(rate, tokens + (now - refilledAt) * rate / 1000.0);
+        }
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+    }
+}
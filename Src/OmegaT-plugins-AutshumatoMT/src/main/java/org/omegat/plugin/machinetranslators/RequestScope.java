@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * The requests sent to the MT service for one translation: their priority,
+ * and a way to abort all of them when the translation is no longer needed.
+ * <p>Waits for the result of another caller's request, see {@link SingleFlight},
+ * are aborted with the scope as well.
+ */
+class RequestScope
+{
+    private final MTPriority priority;
+    private final Set<MTHttpClient.Call> calls = new HashSet<>();
+    private final Set<Future<?>> waits = new HashSet<>();
+    private boolean cancelled;
+
+    /**
+     * Creates a new scope.
+     * @param priority Priority of the requests
+     */
+    RequestScope(MTPriority priority) {
+        this.priority = priority;
+    }
+
+    MTPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Starts a request in this scope. The request is cancelled at once when
+     * the scope already is.
+     * @param readTimeout Read timeout of the request in milliseconds
+     * @return the request handle, to pass to {@link #finished} when done
+     */
+    synchronized MTHttpClient.Call newCall(int readTimeout) {
+        MTHttpClient.Call call = new MTHttpClient.Call(readTimeout);
+        if (cancelled) {
+            call.cancel();
+        } else {
+            calls.add(call);
+        }
+        return call;
+    }
+
+    /**
+     * Ends a request started with {@link #newCall}.
+     * @param call The request
+     */
+    synchronized void finished(MTHttpClient.Call call) {
+        calls.remove(call);
+    }
+
+    /**
+     * Starts waiting in this scope for a result produced elsewhere. The wait
+     * is cancelled at once when the scope already is.
+     * @param wait The wait, to pass to {@link #removeWait} when done
+     */
+    synchronized void addWait(Future<?> wait) {
+        if (cancelled) {
+            wait.cancel(false);
+        } else {
+            waits.add(wait);
+        }
+    }
+
+    /**
+     * Ends a wait started with {@link #addWait}.
+     * @param wait The wait
+     */
+    synchronized void removeWait(Future<?> wait) {
+        waits.remove(wait);
+    }
+
+    /**
+     * Aborts the requests in flight and the waits; requests started later
+     * fail at once.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        for (MTHttpClient.Call call : calls) {
+            call.cancel();
+        }
+        calls.clear();
+        for (Future<?> wait : waits) {
+            wait.cancel(false);
+        }
+        waits.clear();
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Fails when the scope was cancelled, before more work is done for it.
+     * @throws RequestCancelledException when the scope was cancelled
+     */
+    void checkCancelled() throws RequestCancelledException {
+        if (isCancelled()) {
+            throw new RequestCancelledException();
+        }
+    }
+}
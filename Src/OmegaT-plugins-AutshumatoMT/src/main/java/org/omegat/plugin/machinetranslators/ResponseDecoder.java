@@ -0,0 +1,154 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+/**
+ * Decodes the HTML entities used in Autshumato MT responses in a single pass.
+ * <p>Handles the <code>&amp;quot;</code>, <code>&amp;nbsp;</code> and
+ * <code>&amp;amp;</code> entities and decimal <code>&amp;#NNN;</code>
+ * entities. JSON escapes are decoded by {@link MTResponseReader} before the
+ * message gets here. Characters produced by decoding never start a new
+ * entity. The output builder is reused per thread, so decoding allocates
+ * nothing but the result.
+ */
+final class ResponseDecoder
+{
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    // Larger builders are not kept for reuse
+    private static final int MAX_KEPT_CAPACITY = 64 * 1024;
+
+    private ResponseDecoder() {
+    }
+
+    /**
+     * Decodes all entities in the text.
+     * @param in Text as received from the service
+     * @return the decoded text
+     */
+    static String decodeEntities(CharSequence in) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        decodeEntities(in, 0, in.length(), out);
+        String result = out.toString();
+        if (out.capacity() > MAX_KEPT_CAPACITY) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Decodes all entities in part of a text.
+     * @param in Text as received from the service
+     * @param start Index of the first character to decode
+     * @param end Index after the last character to decode
+     * @param out Builder the decoded text is appended to
+     */
+    static void decodeEntities(CharSequence in, int start, int end, StringBuilder out) {
+        int i = start;
+        while (i < end) {
+            char c = in.charAt(i);
+            if (c == '&') {
+                int next = entity(in, i + 1, end, out);
+                if (next > 0) {
+                    i = next;
+                    continue;
+                }
+            }
+            out.append(c);
+            i++;
+        }
+    }
+
+    /*
+     * Decodes the entity whose name starts at i, just after the ampersand.
+     * Appends the character and returns the index after the semicolon, or
+     * returns -1 without appending anything when there is no known entity.
+     */
+    private static int entity(CharSequence in, int i, int end, StringBuilder out) {
+        if (i >= end) {
+            return -1;
+        }
+        char c = in.charAt(i++);
+        if (c == '#') {
+            int value = 0;
+            int digits = 0;
+            boolean overflow = false;
+            while (i < end && (c = in.charAt(i)) >= '0' && c <= '9') {
+                if (value > (Integer.MAX_VALUE - 9) / 10) {
+                    overflow = true;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || i >= end || in.charAt(i) != ';') {
+                return -1;
+            }
+            if (overflow) {
+                // Out of range for an int, same failure as Integer.parseInt
+                throw new NumberFormatException("Character reference out of range");
+            }
+            out.append((char) value);
+            return i + 1;
+        }
+        char decoded;
+        if (c == 'q') {
+            i = match(in, i, end, "uot;");
+            decoded = '"';
+        } else if (c == 'n') {
+            i = match(in, i, end, "bsp;");
+            decoded = '\u00A0';
+        } else if (c == 'a') {
+            i = match(in, i, end, "mp;");
+            decoded = '&';
+        } else {
+            return -1;
+        }
+        if (i < 0) {
+            return -1;
+        }
+        out.append(decoded);
+        return i;
+    }
+
+    // Index after the expected characters, or -1 when they do not follow
+    private static int match(CharSequence in, int i, int end, String expected) {
+        int n = expected.length();
+        if (i + n > end) {
+            return -1;
+        }
+        for (int k = 0; k < n; k++) {
+            if (in.charAt(i + k) != expected.charAt(k)) {
+                return -1;
+            }
+        }
+        return i + n;
+    }
+}
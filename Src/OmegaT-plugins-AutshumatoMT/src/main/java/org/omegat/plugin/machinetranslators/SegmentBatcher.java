@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs short segments into combined MT requests.
+ * <p>The segments of a batch are sent as one text with one segment per
+ * line. The service translates line by line, so the translation of the
+ * batch is split on line breaks again and mapped back to the segments in
+ * order. A segment that contains a line break of its own cannot be packed.
+ */
+final class SegmentBatcher
+{
+    private static final char SEPARATOR = '\n';
+
+    private SegmentBatcher() {
+    }
+
+    /**
+     * Whether a segment can be sent as part of a batch.
+     * @param text Cleaned text of the segment
+     * @param maxLength Maximum length of a batch request
+     * @return true if the segment fits in a batch
+     */
+    static boolean canPack(String text, int maxLength) {
+        return !text.trim().isEmpty() && text.length() <= maxLength
+                && text.indexOf('\n') < 0 && text.indexOf('\r') < 0;
+    }
+
+    /**
+     * Groups segments into batches, keeping their order.
+     * @param texts Cleaned texts of the segments, all packable
+     * @param maxLength Maximum length of the combined text of a batch
+     * @param maxSegments Maximum number of segments in a batch
+     * @return the indexes of the segments in every batch
+     */
+    static List<List<Integer>> pack(List<String> texts, int maxLength, int maxSegments) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int length = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int added = texts.get(i).length() + (current.isEmpty() ? 0 : 1);
+            if (!current.isEmpty() && (length + added > maxLength || current.size() >= maxSegments)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                length = 0;
+                added = texts.get(i).length();
+            }
+            current.add(i);
+            length += added;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Builds the text sent for a batch.
+     * @param texts Cleaned texts of the segments
+     * @param batch Indexes of the segments in the batch
+     * @return the combined text
+     */
+    static String join(List<String> texts, List<Integer> batch) {
+        StringBuilder sb = new StringBuilder();
+        for (int i : batch) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(texts.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits the translation of a batch into the translations of its
+     * segments.
+     * @param translation Translation of the combined text
+     * @param count Number of segments in the batch
+     * @return the translations in batch order, or null when the number of
+     * lines does not match and the segments must be sent one by one
+     */
+    static List<String> split(String translation, int count) {
+        // Line breaks after the last line do not start another segment
+        int length = normalize(translation).length();
+        List<String> parts = new ArrayList<>(count);
+        int start = 0;
+        while (true) {
+            int end = translation.indexOf(SEPARATOR, start);
+            if (end < 0 || end >= length) {
+                parts.add(normalize(translation.substring(start, length)));
+                break;
+            }
+            parts.add(normalize(translation.substring(start, end)));
+            start = end + 1;
+        }
+        return parts.size() == count ? parts : null;
+    }
+
+    /**
+     * Cleans up the translation of a single segment. Applied to segments
+     * sent on their own as well as to every line of a batch, so a segment
+     * gets the same translation either way. Only the line breaks that end
+     * a line are removed; spaces are kept, they may belong next to a tag.
+     * @param translation Translation as received from the service
+     * @return the translation without trailing line breaks
+     */
+    static String normalize(String translation) {
+        int length = translation.length();
+        while (length > 0 && (translation.charAt(length - 1) == '\n' || translation.charAt(length - 1) == '\r')) {
+            length--;
+        }
+        return translation.substring(0, length);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.omegat.util.PatternConsts;
+
+/**
+ * Finds segments that only differ in their numbers, tags or spacing, so
+ * that one machine translation can serve all of them.
+ * <p>The normalized key of a segment has its OmegaT tags removed, its
+ * whitespace collapsed and every number replaced by a placeholder. Two
+ * segments with the same key only need one request: the translation of
+ * the first is reused for the other, with the numbers put back in the
+ * order they occur in. When the numbers cannot be put back without doubt,
+ * the segment is translated on its own instead.
+ */
+final class SegmentNormalizer
+{
+    // Digits with decimal, date and time separators, and thousands
+    // separated by spaces as written in South Africa (R1 000 000). The
+    // index of a tag placeholder such as {0} is not a number.
+    private static final Pattern NUMBER = Pattern.compile("(?<!\\d)(?<!\\{\\s{0,3})\\d+(?:[.,:/-]\\d+|[ \\u00A0]\\d{3}(?!\\d))*");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String PLACEHOLDER = "{#}";
+
+    private SegmentNormalizer() {
+    }
+
+    /**
+     * Normalized key of a segment.
+     * @param text Segment text, with or without OmegaT tags
+     * @return the text without tags, with single spaces and the numbers masked
+     */
+    static String key(String text) {
+        String s = PatternConsts.OMEGAT_TAG.matcher(text).replaceAll("");
+        s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+        return NUMBER.matcher(s).replaceAll(Matcher.quoteReplacement(PLACEHOLDER));
+    }
+
+    /**
+     * Numbers in a text, in text order.
+     * @param text Text without tags
+     * @return the numbers as written
+     */
+    static List<String> numbers(String text) {
+        List<String> result = new ArrayList<>();
+        Matcher m = NUMBER.matcher(text);
+        while (m.find()) {
+            result.add(m.group());
+        }
+        return result;
+    }
+
+    /**
+     * Turns the translation of one segment into the translation of another
+     * segment with the same key, by replacing the numbers.
+     * @param known Text without tags that was translated
+     * @param translation Its translation
+     * @param text Text without tags with the same key
+     * @return the translation of the text, or null when a number of the
+     * translated text does not map to a single number of the text, or the
+     * translation does not contain the numbers as they were sent
+     */
+    static String restore(String known, String translation, String text) {
+        List<String> from = numbers(known);
+        List<String> to = numbers(text);
+        if (from.size() != to.size()) {
+            return null;
+        }
+        if (from.equals(to)) {
+            return translation;
+        }
+        Map<String, String> mapping = new HashMap<>();
+        for (int i = 0; i < from.size(); i++) {
+            String previous = mapping.put(from.get(i), to.get(i));
+            if (previous != null && !previous.equals(to.get(i))) {
+                // The same number became two different numbers
+                return null;
+            }
+        }
+        StringBuilder sb = new StringBuilder(translation.length() + 16);
+        Matcher m = NUMBER.matcher(translation);
+        int last = 0;
+        Set<String> found = new HashSet<>();
+        while (m.find()) {
+            String number = mapping.get(m.group());
+            if (number == null) {
+                // Reformatted or invented by the service
+                return null;
+            }
+            sb.append(translation, last, m.start()).append(number);
+            last = m.end();
+            found.add(m.group());
+        }
+        if (found.size() < mapping.size()) {
+            // A number was left out
+            return null;
+        }
+        return sb.append(translation, last, translation.length()).toString();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.omegat.core.Core;
+import org.omegat.core.segmentation.Rule;
+import org.omegat.core.segmentation.Segmenter;
+import org.omegat.util.Language;
+
+/**
+ * Splits text that is too long for a single MT request into chunks at
+ * sentence boundaries.
+ * <p>Sentences are found with the OmegaT segmenter for the source language,
+ * so the project's segmentation rules apply. Consecutive sentences are
+ * packed into chunks of at most the requested length; a sentence that is
+ * longer on its own is split at the last whitespace that fits. The text
+ * between chunks is kept so the translations can be joined the same way.
+ */
+final class SentenceChunker
+{
+    private final List<String> chunks = new ArrayList<>();
+    // Text before the first chunk, between chunks and after the last one
+    private final List<String> separators = new ArrayList<>();
+
+    private SentenceChunker() {
+    }
+
+    /**
+     * Splits a text into chunks.
+     * @param lang Source language
+     * @param text Text to split
+     * @param maxLength Maximum length of a chunk
+     * @return the chunks and the text between them
+     */
+    static SentenceChunker split(Language lang, String text, int maxLength) {
+        SentenceChunker result = new SentenceChunker();
+        int[] bounds = sentenceBounds(lang, text);
+        int chunkStart = -1;
+        int chunkEnd = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < bounds.length; i += 2) {
+            int start = bounds[i];
+            int end = bounds[i + 1];
+            if (chunkStart >= 0 && end - chunkStart > maxLength) {
+                result.add(text, previousEnd, chunkStart, chunkEnd);
+                previousEnd = chunkEnd;
+                chunkStart = -1;
+            }
+            if (chunkStart < 0) {
+                // Sentence too long for one request on its own
+                while (end - start > maxLength) {
+                    int cut = cutPoint(text, start, start + maxLength);
+                    result.add(text, previousEnd, start, cut);
+                    previousEnd = cut;
+                    start = skipWhitespace(text, cut, end);
+                }
+                chunkStart = start;
+            }
+            chunkEnd = end;
+        }
+        if (chunkStart >= 0) {
+            result.add(text, previousEnd, chunkStart, chunkEnd);
+            previousEnd = chunkEnd;
+        }
+        result.separators.add(text.substring(previousEnd));
+        return result;
+    }
+
+    /**
+     * Chunks to translate, in text order.
+     * @return the chunks
+     */
+    List<String> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Joins the translations of the chunks with the original text between
+     * the chunks.
+     * @param translations Translation of every chunk, in text order
+     * @return the joined translation
+     */
+    String join(List<String> translations) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < translations.size(); i++) {
+            sb.append(separators.get(i)).append(translations.get(i));
+        }
+        sb.append(separators.get(separators.size() - 1));
+        return sb.toString();
+    }
+
+    private void add(String text, int previousEnd, int start, int end) {
+        separators.add(text.substring(previousEnd, start));
+        chunks.add(text.substring(start, end));
+    }
+
+    /*
+     * Start and end offsets of every sentence, without surrounding
+     * whitespace. Uses the project segmenter and falls back to the Java
+     * sentence iterator when it is not available.
+     */
+    private static int[] sentenceBounds(Language lang, String text) {
+        Segmenter segmenter = Core.getSegmenter();
+        if (segmenter != null) {
+            List<String> sentences = segmenter.segment(lang, text, new ArrayList<StringBuilder>(),
+                    new ArrayList<Rule>());
+            if (sentences != null) {
+                int[] bounds = new int[sentences.size() * 2];
+                int pos = 0;
+                int n = 0;
+                for (String s : sentences) {
+                    if (s.isEmpty()) {
+                        continue;
+                    }
+                    int start = text.indexOf(s, pos);
+                    if (start < 0) {
+                        n = -1;
+                        break;
+                    }
+                    pos = start + s.length();
+                    bounds[n++] = start;
+                    bounds[n++] = pos;
+                }
+                if (n >= 0) {
+                    return Arrays.copyOf(bounds, n);
+                }
+            }
+        }
+        BreakIterator it = BreakIterator.getSentenceInstance(lang.getLocale());
+        it.setText(text);
+        List<Integer> bounds = new ArrayList<>();
+        for (int start = it.first(), end = it.next(); end != BreakIterator.DONE; start = end, end = it.next()) {
+            int s = skipWhitespace(text, start, end);
+            int e = end;
+            while (e > s && Character.isWhitespace(text.charAt(e - 1))) {
+                e--;
+            }
+            if (e > s) {
+                bounds.add(s);
+                bounds.add(e);
+            }
+        }
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Last whitespace in (start, limit], or limit when there is none
+    private static int cutPoint(String text, int start, int limit) {
+        if (Character.isHighSurrogate(text.charAt(limit - 1))) {
+            limit--;
+        }
+        if (limit < text.length() && Character.isWhitespace(text.charAt(limit))) {
+            // The chunk fills the request exactly
+            return limit;
+        }
+        for (int i = limit; i > start; i--) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i - 1 > start ? i - 1 : limit;
+            }
+        }
+        return limit;
+    }
+
+    private static int skipWhitespace(String text, int pos, int end) {
+        while (pos < end && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Table of MT requests in flight, so that identical requests made at the
+ * same time share one call to the service.
+ * <p>The first caller for a key becomes the leader and runs the request;
+ * callers arriving while it runs wait for the leader's result, or its
+ * failure, instead of sending their own request. They wait in their own
+ * {@link RequestScope}: cancelling it, also when its deadline passes, ends
+ * the wait without touching the leader. A caller with a higher priority than
+ * the leader does not wait behind it but sends its own request, which the
+ * callers after it join. When the leader's request is cancelled, the waiting
+ * callers send their own. A key can also be claimed up front by a batch
+ * request, which later resolves it.
+ * @param <K> Request key
+ * @param <V> Result
+ */
+class SingleFlight<K, V>
+{
+    /** Result of a request in flight, with the priority it runs at. */
+    private static class Flight<V> extends CompletableFuture<V>
+    {
+        final MTPriority priority;
+
+        Flight(MTPriority priority) {
+            this.priority = priority;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the request, or waits for the identical request already running.
+     * @param key Request key
+     * @param scope Priority and cancellation of the caller
+     * @param request Sends the request, only called by the leader
+     * @return the result of the request
+     * @throws RequestCancelledException when the caller's scope was cancelled while waiting
+     * @throws Exception the failure of the request
+     */
+    V run(K key, RequestScope scope, Callable<V> request) throws Exception {
+        while (true) {
+            Flight<V> mine = new Flight<>(scope.getPriority());
+            Flight<V> running = inFlight.putIfAbsent(key, mine);
+            if (running == null) {
+                return lead(key, mine, request);
+            }
+            if (scope.getPriority().compareTo(running.priority) < 0) {
+                // The leader may still be queued behind other low-priority
+                // traffic, so take over the key rather than wait for it
+                if (inFlight.replace(key, running, mine)) {
+                    return lead(key, mine, request);
+                }
+                continue;
+            }
+            V value = await(running, scope);
+            if (value != null) {
+                return value;
+            }
+            // Released without a result, try again ourselves
+        }
+    }
+
+    /**
+     * Claims a key for a request that is sent later, for example as part
+     * of a batch. The claim must be resolved with {@link #release}.
+     * @param key Request key
+     * @param priority Priority the request will be sent at
+     * @return the claim, or null if a request for the key is already in flight
+     */
+    CompletableFuture<V> claim(K key, MTPriority priority) {
+        Flight<V> claim = new Flight<>(priority);
+        return inFlight.putIfAbsent(key, claim) == null ? claim : null;
+    }
+
+    /**
+     * Resolves a claim. Waiting callers receive the value, or send their own
+     * request when the value is null. Resolving a claim twice has no effect.
+     * @param key Claimed key
+     * @param claim The claim returned by {@link #claim}
+     * @param value Result, or null when the request gave none
+     */
+    void release(K key, CompletableFuture<V> claim, V value) {
+        inFlight.remove(key, claim);
+        claim.complete(value);
+    }
+
+    /**
+     * Number of requests in flight.
+     * @return the size of the table
+     */
+    int size() {
+        return inFlight.size();
+    }
+
+    private V lead(K key, Flight<V> mine, Callable<V> request) throws Exception {
+        try {
+            V value = request.call();
+            mine.complete(value);
+            return value;
+        } catch (RequestCancelledException ex) {
+            // Only the leader lost interest, the others send their own request
+            mine.complete(null);
+            throw ex;
+        } catch (Exception | Error ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> running, RequestScope scope) throws Exception {
+        // A copy of the leader's result, so that cancelling the wait leaves the leader alone
+        CompletableFuture<V> wait = new CompletableFuture<>();
+        running.whenComplete((value, ex) -> {
+            if (ex == null) {
+                wait.complete(value);
+            } else {
+                wait.completeExceptionally(ex);
+            }
+        });
+        scope.addWait(wait);
+        try {
+            return wait.get();
+        } catch (CancellationException ex) {
+            throw new RequestCancelledException();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        } finally {
+            scope.removeWait(wait);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.omegat.util.PatternConsts;
+
+/**
+ * Carries the OmegaT tags of a segment through machine translation.
+ * <p>Every tag is replaced by a numbered placeholder such as
+ * <code>{0}</code>, which the MT service leaves alone, and the placeholders
+ * in the translation are turned back into the tags. Placeholders the
+ * service mangled a little, such as <code>{ 0 }</code>, are still
+ * recognised. Tags whose placeholder was lost are put back at the same
+ * relative position as in the source, on the nearest word boundary.
+ * <p>A segment that already contains text looking like a placeholder has
+ * its tags removed instead, as does every segment when placeholders are
+ * turned off in the settings.
+ */
+final class TagPlaceholders
+{
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\s*(\\d+)\\s*\\}");
+
+    private final String text;
+    private final List<String> tags;
+    // Relative position of each placeholder in the text, from 0 to 1
+    private final double[] positions;
+
+    private TagPlaceholders(String text, List<String> tags, double[] positions) {
+        this.text = text;
+        this.tags = tags;
+        this.positions = positions;
+    }
+
+    /**
+     * Prepares a segment for translation.
+     * @param source Segment text with OmegaT tags
+     * @param keepTags Whether tags are replaced by placeholders, or removed
+     * @return the prepared segment
+     */
+    static TagPlaceholders prepare(String source, boolean keepTags) {
+        Matcher tag = PatternConsts.OMEGAT_TAG.matcher(source);
+        if (!tag.find()) {
+            return new TagPlaceholders(source, new ArrayList<>(), new double[0]);
+        }
+        String removed = tag.replaceAll("");
+        if (!keepTags || PLACEHOLDER.matcher(removed).find()) {
+            return new TagPlaceholders(removed, new ArrayList<>(), new double[0]);
+        }
+        tag.reset();
+        List<String> tags = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(source.length());
+        int last = 0;
+        while (tag.find()) {
+            sb.append(source, last, tag.start());
+            offsets.add(sb.length());
+            sb.append('{').append(tags.size()).append('}');
+            tags.add(tag.group());
+            last = tag.end();
+        }
+        sb.append(source, last, source.length());
+        double[] positions = new double[offsets.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (double) offsets.get(i) / sb.length();
+        }
+        return new TagPlaceholders(sb.toString(), tags, positions);
+    }
+
+    /**
+     * Text to send to the MT service.
+     * @return the text with placeholders, or without tags
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Puts the tags back into a translation of {@link #getText()}.
+     * @param translation Translation with placeholders
+     * @return the translation with tags
+     */
+    String restore(String translation) {
+        if (tags.isEmpty()) {
+            return translation;
+        }
+        boolean[] placed = new boolean[tags.size()];
+        StringBuilder sb = new StringBuilder(translation.length() + tags.size() * 4);
+        Matcher m = PLACEHOLDER.matcher(translation);
+        int last = 0;
+        int missing = tags.size();
+        while (m.find()) {
+            sb.append(translation, last, m.start());
+            int index = parseIndex(m.group(1));
+            if (index >= 0 && index < placed.length && !placed[index]) {
+                sb.append(tags.get(index));
+                placed[index] = true;
+                missing--;
+            }
+            // Unknown or repeated placeholders are dropped
+            last = m.end();
+        }
+        sb.append(translation, last, translation.length());
+        return missing == 0 ? sb.toString() : align(sb.toString(), placed);
+    }
+
+    /**
+     * Inserts the tags whose placeholder was lost at the same relative
+     * position as in the source, in source order.
+     */
+    private String align(String translation, boolean[] placed) {
+        int[] offsets = new int[tags.size()];
+        int previous = 0;
+        for (int i = 0; i < tags.size(); i++) {
+            if (!placed[i]) {
+                int target = (int) Math.round(positions[i] * translation.length());
+                offsets[i] = Math.max(previous, snap(translation, target, tags.get(i).startsWith("</")));
+                previous = offsets[i];
+            }
+        }
+        StringBuilder sb = new StringBuilder(translation.length() + tags.size() * 6);
+        int last = 0;
+        for (int i = 0; i < tags.size(); i++) {
+            if (!placed[i]) {
+                sb.append(translation, last, offsets[i]).append(tags.get(i));
+                last = offsets[i];
+            }
+        }
+        return sb.append(translation, last, translation.length()).toString();
+    }
+
+    /**
+     * Nearest word boundary: the start of a word for opening and standalone
+     * tags, the end of a word for closing tags.
+     */
+    private static int snap(String s, int target, boolean closing) {
+        for (int d = 0; d <= s.length(); d++) {
+            if (target - d >= 0 && isBoundary(s, target - d, closing)) {
+                return target - d;
+            }
+            if (target + d <= s.length() && isBoundary(s, target + d, closing)) {
+                return target + d;
+            }
+        }
+        return target;
+    }
+
+    private static boolean isBoundary(String s, int i, boolean closing) {
+        boolean spaceBefore = i == 0 || Character.isWhitespace(s.charAt(i - 1));
+        boolean spaceAfter = i == s.length() || Character.isWhitespace(s.charAt(i));
+        return closing ? spaceAfter && (i == 0 || !spaceBefore) : spaceBefore && (i == s.length() || !spaceAfter);
+    }
+
+    private static int parseIndex(String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import org.omegat.util.PatternConsts;
+
+/**
+ * Removes the spaces the MT service added around OmegaT tags.
+ * <p>A space (or other whitespace character) right after a tag in the
+ * translation is removed when the source never has that tag followed by
+ * that character, and likewise for whitespace right before a tag. The
+ * source is indexed once, and the translation is rebuilt in a single pass
+ * over its tags.
+ */
+final class TagSpaceReconciler
+{
+    private TagSpaceReconciler() {
+    }
+
+    /**
+     * Removes the whitespace next to tags that was not in the source.
+     * @param source Source text with tags
+     * @param translation Translation with tags
+     * @return the cleaned translation
+     */
+    static String reconcile(String source, String translation) {
+        if (translation.indexOf('<') < 0) {
+            return translation;
+        }
+        Matcher tag = PatternConsts.OMEGAT_TAG.matcher(translation);
+        if (!tag.find()) {
+            return translation;
+        }
+
+        // Whitespace characters found after and before each tag of the source
+        Map<String, String> after = new HashMap<>();
+        Map<String, String> before = new HashMap<>();
+        Matcher s = PatternConsts.OMEGAT_TAG.matcher(source);
+        while (s.find()) {
+            if (s.end() < source.length() && isSpace(source.charAt(s.end()))) {
+                after.merge(s.group(), String.valueOf(source.charAt(s.end())), String::concat);
+            }
+            if (s.start() > 0 && isSpace(source.charAt(s.start() - 1))) {
+                before.merge(s.group(), String.valueOf(source.charAt(s.start() - 1)), String::concat);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(translation.length());
+        int last = 0;
+        do {
+            String t = tag.group();
+            sb.append(translation, last, tag.start());
+            int len = sb.length();
+            if (len > 0 && isSpace(sb.charAt(len - 1)) && !contains(before, t, sb.charAt(len - 1))) {
+                sb.setLength(len - 1);
+            }
+            sb.append(t);
+            last = tag.end();
+            if (last < translation.length() && isSpace(translation.charAt(last))
+                    && !contains(after, t, translation.charAt(last))) {
+                last++;
+            }
+        } while (tag.find());
+        return sb.append(translation, last, translation.length()).toString();
+    }
+
+    private static boolean contains(Map<String, String> spaces, String tag, char c) {
+        String found = spaces.get(tag);
+        return found != null && found.indexOf(c) >= 0;
+    }
+
+    // The characters of \s in a regular expression
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded in-memory cache of translations received from the Autshumato MT
+ * service.
+ * <p>Entries are kept in access order and the least recently used entry is
+ * evicted once the configured size is exceeded. Entries older than the time
+ * to live are treated as missing and removed when they are encountered.
+ * The size and time to live are read from {@link AutshumatoSettings} on
+ * every access, so the cache follows preference changes without a restart,
+ * unless the cache was created with a fixed capacity.
+ */
+class TranslationCache
+{
+    private final LinkedHashMap<TranslationKey, Entry> entries
+            = new LinkedHashMap<>(256, 0.75f, true);
+    // Fixed number of entries, or -1 to follow the preferences
+    private final int capacity;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Creates a cache sized by the preferences. */
+    TranslationCache() {
+        this(-1);
+    }
+
+    /**
+     * Creates a cache of a fixed size, whose entries do not expire.
+     * @param capacity Number of entries kept, -1 to follow the preferences
+     */
+    TranslationCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Looks up a translation.
+     * @param key Request key
+     * @return the cached translation or null when it is missing or expired
+     */
+    synchronized String get(TranslationKey key) {
+        Entry e = entries.get(key);
+        if (e != null && isExpired(e, System.currentTimeMillis())) {
+            entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.translation;
+    }
+
+    /**
+     * Looks up a translation without counting a hit or a miss, to check
+     * again for a translation that may have arrived since the last lookup.
+     * @param key Request key
+     * @return the cached translation or null when it is missing or expired
+     */
+    synchronized String peek(TranslationKey key) {
+        Entry e = entries.get(key);
+        return e == null || isExpired(e, System.currentTimeMillis()) ? null : e.translation;
+    }
+
+    /**
+     * Stores a translation, evicting the least recently used entries when
+     * the cache is full.
+     * @param key Request key
+     * @param translation Translation received from the service
+     */
+    synchronized void put(TranslationKey key, String translation) {
+        int maxSize = capacity >= 0 ? capacity : AutshumatoSettings.getCacheSize();
+        if (maxSize == 0) {
+            entries.clear();
+            return;
+        }
+        entries.put(key, new Entry(translation, System.currentTimeMillis()));
+        evict(maxSize);
+    }
+
+    /** Removes all entries, the counters are kept. */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Summary of the cache counters for the log.
+     * @return human readable statistics
+     */
+    synchronized String getStatistics() {
+        long total = hits + misses;
+        long ratio = total == 0 ? 0 : hits * 100 / total;
+        return "size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + " (" + ratio + "% hit rate), evictions=" + evictions;
+    }
+
+    // Drops the least recently used entries until the cache fits again
+    private void evict(int maxSize) {
+        Iterator<TranslationKey> it = entries.keySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private boolean isExpired(Entry e, long now) {
+        long ttl = capacity >= 0 ? 0 : AutshumatoSettings.getCacheTtlMillis();
+        return ttl > 0 && now - e.created > ttl;
+    }
+
+    private static final class Entry
+    {
+        final String translation;
+        final long created;
+
+        Entry(String translation, long created) {
+            this.translation = translation;
+            this.created = created;
+        }
+    }
+}
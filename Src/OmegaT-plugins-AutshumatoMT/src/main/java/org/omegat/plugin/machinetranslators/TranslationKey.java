@@ -0,0 +1,87 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+/**
+ * Identifies a single request to the Autshumato MT service: the language pair
+ * and the cleaned text that is sent to the service.
+ */
+final class TranslationKey
+{
+    private final String source;
+    private final String target;
+    private final String text;
+    private final int hash;
+
+    /**
+     * Creates a new key.
+     * @param source Source language code
+     * @param target Target language code
+     * @param text Cleaned text as sent to the service
+     */
+    TranslationKey(String source, String target, String text) {
+        this.source = source;
+        this.target = target;
+        this.text = text;
+        int h = source.hashCode();
+        h = 31 * h + target.hashCode();
+        h = 31 * h + text.hashCode();
+        this.hash = h;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    String getTarget() {
+        return target;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TranslationKey)) {
+            return false;
+        }
+        TranslationKey other = (TranslationKey) obj;
+        return hash == other.hash && text.equals(other.text)
+                && source.equals(other.source) && target.equals(other.target);
+    }
+
+    @Override
+    public String toString() {
+        return source + "-" + target + ": " + text;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.omegat.util.Language;
+import org.omegat.util.Preferences;
+
+/**
+ * Translates batches of segments against a stand-in service that cannot
+ * translate any text containing "bad".
+ */
+public class AutshumatoTranslateTest
+{
+    private static final Language EN = new Language("en");
+    private static final Language AF = new Language("af");
+
+    private static StandInMTService service;
+    private static AutshumatoTranslate translator;
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        TestPreferences.init();
+        service = new StandInMTService((request, text) -> {
+            if (text.contains("bad")) {
+                throw new StandInMTService.ServiceError(400, "cannot translate");
+            }
+            return text.toUpperCase(Locale.ROOT).replace("\n", "\r\n") + "\r\n";
+        });
+        Preferences.setPreference(AutshumatoSettings.ENDPOINTS, service.getUrl());
+        Preferences.setPreference(AutshumatoSettings.STORE_ENABLED, false);
+        translator = new AutshumatoTranslate();
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    private static List<String> translate(String... texts) throws Exception {
+        return translator.translatePreparedAsync(EN, AF, PreparedSegment.prepareAll(Arrays.asList(texts)),
+                MTPriority.BULK).get();
+    }
+
+    @Test
+    public void testFailedBatchFallsBackToSingleRequests() throws Exception {
+        int before = service.getRequests();
+        List<String> tr = translate("fallback one", "fallback bad two", "fallback three");
+        assertEquals("FALLBACK ONE", tr.get(0));
+        assertNull(tr.get(1));
+        assertEquals("FALLBACK THREE", tr.get(2));
+        // The batch, then each segment on its own
+        assertEquals(4, service.getRequests() - before);
+    }
+
+    @Test
+    public void testBatchedAndSingleTranslationsKeepSpaces() throws Exception {
+        List<String> batched = translate(" spaced batch ", "other batch");
+        assertEquals(" SPACED BATCH ", batched.get(0));
+        assertEquals("OTHER BATCH", batched.get(1));
+        assertEquals(Arrays.asList(" SPACED SINGLE "),
+                translator.translateBatch(EN, AF, Arrays.asList(" spaced single ")));
+    }
+}
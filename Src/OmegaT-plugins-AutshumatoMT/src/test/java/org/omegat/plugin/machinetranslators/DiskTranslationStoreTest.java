@@ -0,0 +1,247 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes, reopens, compacts and damages translation stores in a temporary
+ * folder.
+ */
+public class DiskTranslationStoreTest
+{
+    private static final long MAX_BYTES = 1 << 20;
+    // magic, key length, value length, CRC
+    private static final int RECORD_HEADER = 16;
+
+    private File dir;
+    private DiskTranslationStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("autshumato-mt-store").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private DiskTranslationStore open(long maxBytes) throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = DiskTranslationStore.open(dir, "en", "af", maxBytes);
+        return store;
+    }
+
+    // The log of the current generation
+    private File logFile() {
+        File[] logs = dir.listFiles(f -> f.getName().endsWith(".log"));
+        assertEquals(1, logs.length);
+        return logs[0];
+    }
+
+    private static int recordLength(String text, String translation) {
+        return RECORD_HEADER + text.getBytes(StandardCharsets.UTF_8).length
+                + translation.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void testTranslationsSurviveReopen() throws Exception {
+        open(MAX_BYTES);
+        store.put("one", "een");
+        store.put("two", "twee");
+        store.put("one", "eén");
+        store.put("ŉ Toets", "a test");
+        open(MAX_BYTES);
+        assertEquals("eén", store.get("one"));
+        assertEquals("twee", store.get("two"));
+        assertEquals("a test", store.get("ŉ Toets"));
+        assertNull(store.get("three"));
+    }
+
+    @Test
+    public void testIndexAndTailSurviveReopen() throws Exception {
+        open(MAX_BYTES);
+        store.put("one", "een");
+        store.put("two", "twee");
+        store.compact();
+        // Behind the index, read back into the tail on the next open
+        store.put("two", "TWEE");
+        store.put("three", "drie");
+        assertEquals("een", store.get("one"));
+        assertEquals("TWEE", store.get("two"));
+        open(MAX_BYTES);
+        assertEquals("een", store.get("one"));
+        assertEquals("TWEE", store.get("two"));
+        assertEquals("drie", store.get("three"));
+    }
+
+    @Test
+    public void testTruncatedTailRecordIsDropped() throws Exception {
+        open(MAX_BYTES);
+        store.put("one", "een");
+        // With an index, reopening does not start a compaction of its own
+        store.compact();
+        store.put("two", "twee");
+        store.close();
+        // A write cut short by a crash
+        File log = logFile();
+        try (RandomAccessFile f = new RandomAccessFile(log, "rw")) {
+            f.setLength(f.length() - 3);
+        }
+        open(MAX_BYTES);
+        assertEquals("een", store.get("one"));
+        assertNull(store.get("two"));
+        assertEquals(recordLength("one", "een"), logFile().length());
+        // New records go where the damaged one was
+        store.put("three", "drie");
+        open(MAX_BYTES);
+        assertEquals("een", store.get("one"));
+        assertEquals("drie", store.get("three"));
+    }
+
+    @Test
+    public void testCorruptRecordIsSkipped() throws Exception {
+        open(MAX_BYTES);
+        store.put("one", "een");
+        store.compact();
+        store.put("two", "twee");
+        store.put("three", "drie");
+        store.close();
+        // Change the first byte of the translation of "two"
+        long pos = recordLength("one", "een") + RECORD_HEADER + "two".length();
+        try (RandomAccessFile f = new RandomAccessFile(logFile(), "rw")) {
+            f.seek(pos);
+            f.write('T');
+        }
+        open(MAX_BYTES);
+        assertEquals("een", store.get("one"));
+        assertNull(store.get("two"));
+        assertEquals("drie", store.get("three"));
+        // The compaction rewrites the log without the damaged record
+        store.compact();
+        assertEquals(recordLength("one", "een") + recordLength("three", "drie"), logFile().length());
+        open(MAX_BYTES);
+        assertEquals("een", store.get("one"));
+        assertEquals("drie", store.get("three"));
+    }
+
+    @Test
+    public void testCompactionDuringPutsKeepsLatestTranslations() throws Exception {
+        open(MAX_BYTES);
+        int writers = 4;
+        int perWriter = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(writers + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> puts = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                puts.add(pool.submit(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        // Every text is written twice, the second time last
+                        store.put("text " + writer + " " + (i % 500), "tr " + writer + " " + i);
+                    }
+                    return null;
+                }));
+            }
+            Future<Integer> compactions = pool.submit(() -> {
+                int n = 0;
+                while (writing.get()) {
+                    store.compact();
+                    n++;
+                }
+                return n;
+            });
+            for (Future<?> f : puts) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            assertTrue(compactions.get(60, TimeUnit.SECONDS) > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int w = 0; w < writers; w++) {
+                for (int i = perWriter - 500; i < perWriter; i++) {
+                    assertEquals("tr " + w + " " + i, store.get("text " + w + " " + (i % 500)));
+                }
+            }
+            open(MAX_BYTES);
+        }
+    }
+
+    @Test
+    public void testSizeCapDropsOldestTranslations() throws Exception {
+        long maxBytes = 8 * 1024;
+        open(maxBytes);
+        int count = 400;
+        for (int i = 0; i < count; i++) {
+            store.put(String.format("text %04d", i), String.format("translation %04d", i));
+        }
+        store.compact();
+        // The newest records are kept, without gaps
+        int kept = 0;
+        while (kept < count && store.get(String.format("text %04d", count - 1 - kept)) != null) {
+            kept++;
+        }
+        long size = (long) kept * recordLength("text 0000", "translation 0000");
+        assertTrue("kept " + kept, kept > 0);
+        assertTrue("kept " + size + " bytes", size <= maxBytes - maxBytes / 4);
+        for (int i = 0; i < count - kept; i++) {
+            assertNull(store.get(String.format("text %04d", i)));
+        }
+        open(maxBytes);
+        assertEquals("translation 0399", store.get("text 0399"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Finds glossary terms with single matchers and unions of matchers, and
+ * compares the automaton with a plain search on random texts.
+ */
+public class GlossaryMatcherTest
+{
+    private static GlossaryMatcher matcher(String... pairs) {
+        Map<String, List<String>> glossary = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            glossary.computeIfAbsent(pairs[i], k -> new ArrayList<>()).add(pairs[i + 1]);
+        }
+        return GlossaryMatcher.build(glossary);
+    }
+
+    // "source=target|target" for every match, in text order
+    private static List<String> find(GlossaryMatcher m, String text) {
+        List<String> result = new ArrayList<>();
+        for (GlossaryMatcher.Match match : m.find(text)) {
+            assertEquals(match.source, text.substring(match.start, match.end));
+            result.add(match.source + "=" + String.join("|", match.targets));
+        }
+        return result;
+    }
+
+    @Test
+    public void testWholeWordsIgnoringCase() {
+        GlossaryMatcher m = matcher("cat", "kat", "Dog", "hond");
+        assertEquals(Arrays.asList("Cat=kat", "DOG=hond"), find(m, "Cat, category, hotdog and DOG."));
+        assertEquals(Arrays.asList(), find(m, "cats dogs"));
+    }
+
+    @Test
+    public void testLeftmostLongestWithoutOverlap() {
+        GlossaryMatcher m = matcher("file", "lêer", "file manager", "lêerbestuurder",
+                "manager settings", "bestuurderinstellings", "settings", "instellings");
+        assertEquals(Arrays.asList("file manager=lêerbestuurder", "settings=instellings"),
+                find(m, "Open the file manager settings"));
+        assertEquals(Arrays.asList("file=lêer"), find(m, "file managers"));
+    }
+
+    @Test
+    public void testFailureLinksFindShorterTerms() {
+        GlossaryMatcher m = matcher("a b x", "1", "b c", "2", "c", "3");
+        // "a b " leads towards "a b x", then continues with "b c"
+        assertEquals(Arrays.asList("b c=2"), find(m, "a b c"));
+        assertEquals(Arrays.asList("a b x=1", "c=3"), find(m, "a b x c"));
+    }
+
+    @Test
+    public void testEmptyTermsAndTargetsAreSkipped() {
+        Map<String, List<String>> glossary = new LinkedHashMap<>();
+        glossary.put("  ", Arrays.asList("leeg"));
+        glossary.put("word", new ArrayList<String>());
+        glossary.put(" term ", Arrays.asList("term"));
+        GlossaryMatcher m = GlossaryMatcher.build(glossary);
+        assertEquals(1, m.size());
+        assertEquals(Arrays.asList("term=term"), find(m, "a word and a term"));
+    }
+
+    @Test
+    public void testUnionMergesTargets() {
+        GlossaryMatcher writeable = matcher("file", "lêer", "folder", "vouer");
+        GlossaryMatcher other = matcher("file", "Lêer", "file", "dossier", "disk", "skyf");
+        GlossaryMatcher union = GlossaryMatcher.union(Arrays.asList(writeable, GlossaryMatcher.EMPTY, other));
+        assertEquals(4, union.size());
+        assertEquals(Arrays.asList("file=lêer|dossier", "folder=vouer", "disk=skyf"),
+                find(union, "file in folder on disk"));
+        // The other order puts the other targets first
+        assertEquals(Arrays.asList("file=Lêer|dossier"),
+                find(GlossaryMatcher.union(Arrays.asList(other, writeable)), "file"));
+    }
+
+    @Test
+    public void testUnionOfUnionsAndSingleMatchers() {
+        GlossaryMatcher a = matcher("one", "een");
+        GlossaryMatcher b = matcher("two", "twee");
+        GlossaryMatcher c = matcher("one two", "een twee");
+        assertSame(a, GlossaryMatcher.union(Arrays.asList(a, GlossaryMatcher.EMPTY)));
+        assertSame(GlossaryMatcher.EMPTY, GlossaryMatcher.union(new ArrayList<GlossaryMatcher>()));
+        GlossaryMatcher union = GlossaryMatcher.union(Arrays.asList(GlossaryMatcher.union(Arrays.asList(a, b)), c));
+        assertEquals(3, union.size());
+        assertEquals(Arrays.asList("one two=een twee", "one=een"), find(union, "one two one"));
+    }
+
+    @Test
+    public void testMatchesPlainSearch() {
+        Random random = new Random(3);
+        String[] words = { "a", "ab", "b", "ba", "abba", "c" };
+        for (int n = 0; n < 300; n++) {
+            Map<String, List<String>> glossary = new LinkedHashMap<>();
+            for (int i = random.nextInt(8); i >= 0; i--) {
+                String term = phrase(random, words, 1 + random.nextInt(3));
+                glossary.put(term, Arrays.asList(term.toUpperCase()));
+            }
+            String text = phrase(random, words, 1 + random.nextInt(12));
+            assertEquals(glossary + " in " + text, plainSearch(glossary, text),
+                    find(GlossaryMatcher.build(glossary), text));
+        }
+    }
+
+    private static String phrase(Random random, String[] words, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(i == 0 ? "" : random.nextBoolean() ? " " : ", ").append(words[random.nextInt(words.length)]);
+        }
+        return sb.toString();
+    }
+
+    // Leftmost, then longest, whole-word matches found by trying every term at every position
+    private static List<String> plainSearch(Map<String, List<String>> glossary, String text) {
+        List<String> result = new ArrayList<>();
+        String lower = text.toLowerCase();
+        int pos = 0;
+        while (pos < text.length()) {
+            String best = null;
+            for (String term : glossary.keySet()) {
+                if (lower.startsWith(term, pos) && GlossaryMatcher.isWordStart(text, pos)
+                        && GlossaryMatcher.isWordEnd(text, pos + term.length())
+                        && (best == null || term.length() > best.length())) {
+                    best = term;
+                }
+            }
+            if (best == null) {
+                pos++;
+            } else {
+                result.add(text.substring(pos, pos + best.length()) + "=" + glossary.get(best).get(0));
+                pos += best.length();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs hedged requests against a stand-in service that is slow to answer
+ * the first request.
+ */
+public class HedgedRequestTest
+{
+    private static final int READ_TIMEOUT = 30000;
+    // How long the slow request takes, far longer than any hedged request
+    private static final long SLOW_MILLIS = 10000;
+
+    private final MTHttpClient http = new MTHttpClient();
+    private ExecutorService pool;
+    private StandInMTService service;
+
+    @BeforeClass
+    public static void initPreferences() throws Exception {
+        TestPreferences.init();
+    }
+
+    @Before
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.close();
+        }
+        pool.shutdownNow();
+    }
+
+    // Answers with the request number, after SLOW_MILLIS for the given one
+    private void startService(int slowRequest) throws IOException {
+        service = new StandInMTService((request, text) -> {
+            if (request == slowRequest) {
+                Thread.sleep(SLOW_MILLIS);
+            }
+            return text + " " + request;
+        });
+    }
+
+    private String send(MTHttpClient.Call call) throws IOException {
+        Map<String, String> p = new TreeMap<>();
+        p.put("text", "hedge");
+        return http.get(service.getUrl(), p, Collections.<String, String>emptyMap(),
+                MTResponseReader::readTranslation, call);
+    }
+
+    @Test
+    public void testHedgeAnswersWhenFirstAttemptIsSlow() throws Exception {
+        startService(1);
+        long start = System.nanoTime();
+        String tr = HedgedRequest.run(pool, new RequestScope(MTPriority.INTERACTIVE), this::send, READ_TIMEOUT, 100);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals("hedge 2", tr);
+        assertEquals(2, service.getRequests());
+        assertTrue("took " + millis + " ms", millis < SLOW_MILLIS / 2);
+    }
+
+    @Test
+    public void testNoHedgeWhenFirstAttemptIsFast() throws Exception {
+        startService(0);
+        String tr = HedgedRequest.run(pool, new RequestScope(MTPriority.INTERACTIVE), this::send, READ_TIMEOUT, 2000);
+        assertEquals("hedge 1", tr);
+        assertEquals(1, service.getRequests());
+    }
+
+    @Test
+    public void testWithoutHedgeDelayWaitsForSlowAttempt() throws Exception {
+        service = new StandInMTService((request, text) -> {
+            Thread.sleep(300);
+            return text;
+        });
+        long start = System.nanoTime();
+        String tr = HedgedRequest.run(pool, new RequestScope(MTPriority.BULK), this::send, READ_TIMEOUT, -1);
+        assertEquals("hedge", tr);
+        assertEquals(1, service.getRequests());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test
+    public void testFailedAttemptWaitsForTheOther() throws Exception {
+        startService(0);
+        AtomicInteger attempts = new AtomicInteger();
+        String tr = HedgedRequest.run(pool, new RequestScope(MTPriority.INTERACTIVE), call -> {
+            if (attempts.incrementAndGet() == 1) {
+                Thread.sleep(200);
+                throw new IOException("first attempt failed");
+            }
+            return send(call);
+        }, READ_TIMEOUT, 50);
+        assertEquals("hedge 1", tr);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testFailsWhenBothAttemptsFail() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            HedgedRequest.run(pool, new RequestScope(MTPriority.INTERACTIVE), call -> {
+                int n = attempts.incrementAndGet();
+                Thread.sleep(n == 1 ? 100 : 200);
+                throw new IOException("attempt " + n);
+            }, READ_TIMEOUT, 10);
+            fail("no failure");
+        } catch (IOException ex) {
+            assertEquals("attempt 1", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testCancelAbortsBothAttempts() throws Exception {
+        service = new StandInMTService((request, text) -> {
+            Thread.sleep(SLOW_MILLIS);
+            return text;
+        });
+        RequestScope scope = new RequestScope(MTPriority.INTERACTIVE);
+        pool.submit(() -> {
+            Thread.sleep(300);
+            scope.cancel();
+            return null;
+        });
+        long start = System.nanoTime();
+        try {
+            HedgedRequest.run(pool, scope, this::send, READ_TIMEOUT, 100);
+            fail("not cancelled");
+        } catch (RequestCancelledException ex) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SLOW_MILLIS / 2);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MTEndpointTest
+{
+    @BeforeClass
+    public static void initPreferences() throws Exception {
+        TestPreferences.init();
+    }
+
+    private static MTEndpoint answered(String url, long millis) throws Exception {
+        MTEndpoint endpoint = new MTEndpoint(url, new MTHttpClient());
+        endpoint.start(MTPriority.BULK, new MTHttpClient.Call(1000));
+        endpoint.succeeded(millis);
+        return endpoint;
+    }
+
+    @Test
+    public void testUnknownEndpointIsNotPreferred() throws Exception {
+        MTEndpoint known = answered("http://known/", 200);
+        MTEndpoint unknown = new MTEndpoint("http://unknown/", new MTHttpClient());
+        assertTrue(unknown.getLoad() > known.getLoad());
+    }
+
+    @Test
+    public void testFirstAnswerReplacesAssumedLatency() throws Exception {
+        assertEquals(200, answered("http://known/", 200).getLoad(), 0.001);
+    }
+
+    @Test
+    public void testFailuresRaiseLoad() throws Exception {
+        MTEndpoint failing = answered("http://failing/", 50);
+        MTEndpoint slow = answered("http://slow/", 400);
+        for (int i = 0; i < 3; i++) {
+            failing.start(MTPriority.BULK, new MTHttpClient.Call(1000));
+            failing.failed(new ConnectException("refused"));
+        }
+        assertTrue(failing.getLoad() > slow.getLoad());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Reads service responses, well-formed and not, from byte streams.
+ */
+public class MTResponseReaderTest
+{
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(String json) throws IOException {
+        return MTResponseReader.readTranslation(200, body(json));
+    }
+
+    // Reads a response that must fail, returns the status of the failure
+    private static int failure(int httpStatus, String json) throws IOException {
+        try {
+            String tr = MTResponseReader.readTranslation(httpStatus, body(json));
+            fail("Read " + tr);
+            return 0;
+        } catch (MTServiceException ex) {
+            return ex.getStatus();
+        }
+    }
+
+    @Test
+    public void testReadsMessage() throws Exception {
+        assertEquals("Goeie môre", read("{\"_status\":200,\"_message\":\"Goeie môre\"}"));
+        assertEquals("andersom", read(" { \"_message\" : \"andersom\" , \"_status\" : \"200\" } "));
+    }
+
+    @Test
+    public void testSkipsOtherFields() throws Exception {
+        assertEquals("ja", read("{\"engine\":{\"name\":\"en-af\",\"tags\":[\"}\",\"]\",{\"a\":1}]},"
+                + "\"time\":-1.5e3,\"cached\":false,\"note\":null,\"quote\":\"\\\"}\","
+                + "\"_status\":200,\"_message\":\"ja\"}"));
+    }
+
+    @Test
+    public void testDecodesEscapesAndEntities() throws Exception {
+        assertEquals("r\u00e9\u00eal \"quoted\"\n/tab\there\\ & \u00a0'",
+                read("{\"_status\":200,\"_message\":\"r\\u00e9\\u00EAl \\\"quoted\\\"\\n\\/tab\\there\\\\ "
+                        + "&amp; &nbsp;&#39;\"}"));
+        // An entity written with JSON escapes is decoded once both are undone
+        assertEquals("\"", read("{\"_status\":200,\"_message\":\"\\u0026quot;\"}"));
+    }
+
+    @Test
+    public void testReadsLongMessage() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20000) {
+            text.append("woord ").append(text.length()).append(' ');
+        }
+        assertEquals(text.toString(), read("{\"_status\":200,\"_message\":\"" + text + "\"}"));
+    }
+
+    @Test
+    public void testStopsAfterBothFields() throws Exception {
+        // The rest of the stream is never read
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read too far");
+            }
+        };
+        InputStream in = new SequenceInputStream(body("{\"_status\":200,\"_message\":\"klaar\""), broken);
+        assertEquals("klaar", MTResponseReader.readTranslation(200, in));
+    }
+
+    @Test
+    public void testReportsServiceErrors() throws Exception {
+        try {
+            read("{\"_status\":503,\"_message\":\"Model busy\"}");
+            fail();
+        } catch (MTServiceException ex) {
+            assertEquals(503, ex.getStatus());
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("Model busy"));
+        }
+        assertEquals(502, failure(502, "{\"_status\":502,\"_message\":\"Bad gateway\"}"));
+        // An HTML error page from a proxy
+        assertEquals(504, failure(504, "<html><body>Gateway Timeout</body></html>"));
+    }
+
+    @Test
+    public void testRejectsMalformedResponses() throws Exception {
+        int malformed = MTServiceException.MALFORMED_RESPONSE;
+        assertEquals(malformed, failure(200, ""));
+        assertEquals(malformed, failure(200, "{}"));
+        assertEquals(malformed, failure(200, "{\"_status\":200}"));
+        assertEquals(malformed, failure(200, "{\"_message\":\"no status\"}"));
+        assertEquals(malformed, failure(200, "{\"_status\":200,\"_message\":\"cut off"));
+        assertEquals(malformed, failure(200, "{\"_status\":\"OK\",\"_message\":\"x\"}"));
+        assertEquals(malformed, failure(200, "{\"_status\":200,\"_message\":\"bad \\x escape\"}"));
+        assertEquals(malformed, failure(200, "{\"_status\":200 \"_message\":\"x\"}"));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Looks up nearly identical texts, such as sentences of a revised edition.
+ */
+public class NearDuplicateIndexTest
+{
+    private static final String PAIR = "en-af";
+    private static final String SENTENCE = "The committee will meet on Tuesday to discuss the annual budget "
+            + "and the new building plans for the school";
+    // One word changed, 15 of 17 distinct words in common
+    private static final String REVISED = SENTENCE.replace("Tuesday", "Wednesday");
+
+    @Test
+    public void testWordsAreDistinctAndIgnoreCase() {
+        assertEquals(4, NearDuplicateIndex.words("The cat, the CAT and... the dog!").length);
+        assertEquals(0, NearDuplicateIndex.words(" ... ").length);
+        long[] a = NearDuplicateIndex.words("one two three four");
+        long[] b = NearDuplicateIndex.words("Four, three; two and five");
+        assertEquals(3.0 / 6, NearDuplicateIndex.jaccard(a, b), 1e-9);
+        assertEquals(1.0, NearDuplicateIndex.jaccard(a, NearDuplicateIndex.words("FOUR one three two one")), 1e-9);
+    }
+
+    @Test
+    public void testFindsRevisedSentence() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100);
+        index.add(PAIR, SENTENCE, "vertaling");
+        index.add(PAIR, "Something else entirely", "iets anders");
+        NearDuplicateIndex.Match m = index.find(PAIR, REVISED, 0.8);
+        assertNotNull(m);
+        assertEquals(SENTENCE, m.text);
+        assertEquals("vertaling", m.translation);
+        assertEquals(15.0 / 17, m.similarity, 1e-9);
+        assertNull(index.find(PAIR, REVISED, 0.95));
+    }
+
+    @Test
+    public void testNeverFindsTheTextItselfOrOtherPairs() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100);
+        index.add(PAIR, SENTENCE, "vertaling");
+        assertNull(index.find(PAIR, SENTENCE, 0.5));
+        assertNull(index.find("en-zu", REVISED, 0.5));
+        assertNull(index.find(PAIR, "...", 0.0));
+    }
+
+    @Test
+    public void testFindsMostSimilar() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100);
+        String text = SENTENCE.replace("annual", "yearly");
+        index.add(PAIR, text.replace("school", "college").replace("Tuesday", "Friday"), "twee woorde anders");
+        index.add(PAIR, SENTENCE, "een woord anders");
+        assertEquals("een woord anders", index.find(PAIR, text, 0.7).translation);
+        index.add(PAIR, text + " today", "een woord meer");
+        assertEquals("een woord meer", index.find(PAIR, text, 0.7).translation);
+    }
+
+    @Test
+    public void testLaterTranslationReplacesEarlier() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100);
+        index.add(PAIR, SENTENCE, "oud");
+        index.add(PAIR, SENTENCE, "nuut");
+        assertEquals(1, index.size());
+        assertEquals("nuut", index.find(PAIR, REVISED, 0.8).translation);
+    }
+
+    @Test
+    public void testOldestTextsAreForgotten() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3);
+        index.add(PAIR, SENTENCE, "eerste");
+        for (int i = 0; i < 3; i++) {
+            index.add(PAIR, "Unrelated sentence number " + i, "ander " + i);
+        }
+        assertEquals(3, index.size());
+        assertNull(index.find(PAIR, REVISED, 0.5));
+        assertEquals("ander 2", index.find(PAIR, "Unrelated sentence number 2 again", 0.5).translation);
+    }
+}
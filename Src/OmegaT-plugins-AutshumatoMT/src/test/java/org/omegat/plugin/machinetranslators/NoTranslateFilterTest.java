@@ -0,0 +1,59 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NoTranslateFilterTest
+{
+    @Test
+    public void testUntranslatable() {
+        String[] texts = { "12.5%", "R1 000 000", "<b0>2021/05/12</b0>", "https://www.gov.za/docs?id=5",
+            "info@dac.gov.za", "COVID-19", "A4", "3.2 –", "—", "<x1/>", "978-0-620-12345-6", " 12 " };
+        for (String text : texts) {
+            assertTrue(text, NoTranslateFilter.isUntranslatable(text));
+        }
+    }
+
+    @Test
+    public void testTranslatable() {
+        String[] texts = { "Hello world", "1st", "Table 5", "22nd May", "<b0>Notice</b0>", "USA", "e.g.",
+            "5 km", "user@example" };
+        for (String text : texts) {
+            assertFalse(text, NoTranslateFilter.isUntranslatable(text));
+        }
+    }
+
+    @Test
+    public void testNoBreakSpaceSeparatesWords() {
+        // Read as the code "5days" when the no-break space is not a separator
+        assertFalse(NoTranslateFilter.isUntranslatable("5\u00A0days"));
+        assertFalse(NoTranslateFilter.isUntranslatable("Table\u00A05"));
+        assertTrue(NoTranslateFilter.isUntranslatable("R1\u00A0000\u00A0000"));
+        assertTrue(NoTranslateFilter.isUntranslatable("\u00A012\u00A0"));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.omegat.util.Preferences;
+
+/**
+ * Writes and merges the shared MT files of a project in a temporary folder.
+ */
+public class ProjectTranslationCacheTest
+{
+    private static final TranslationKey ONE = new TranslationKey("en", "af", "one");
+    private static final TranslationKey TWO = new TranslationKey("en", "af", "two");
+    private static final TranslationKey THREE = new TranslationKey("en", "af", "three");
+
+    private File internal;
+
+    @Before
+    public void setUp() throws IOException {
+        internal = Files.createTempDirectory("autshumato-mt-project").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File dir = new File(internal, ProjectTranslationCache.DIR);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+        internal.delete();
+    }
+
+    private static List<String> lines(File f) throws IOException {
+        return Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+    }
+
+    // Waits for the clock to move on, so that a later line is also newer
+    private static void nextMillisecond() {
+        long now = System.currentTimeMillis();
+        while (System.currentTimeMillis() == now) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void testTranslationsSurviveReload() throws Exception {
+        TranslationKey special = new TranslationKey("en", "af", "tab\there\nnew line \\ back");
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            cache.put(ONE, "een");
+            cache.put(special, "oortjie\tline\r\n");
+            assertEquals(new File(new File(internal, ProjectTranslationCache.DIR), "alpha.tsv"),
+                    cache.getOwnFile());
+        }
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            assertEquals(2, cache.size());
+            assertEquals("een", cache.get(ONE));
+            assertEquals("oortjie\tline\r\n", cache.get(special));
+            assertEquals(2, lines(cache.getOwnFile()).size());
+        }
+    }
+
+    @Test
+    public void testSameTranslationIsWrittenOnce() throws Exception {
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            cache.put(ONE, "een");
+            cache.put(ONE, "een");
+            assertEquals(1, lines(cache.getOwnFile()).size());
+            cache.put(ONE, "EEN");
+            assertEquals(2, lines(cache.getOwnFile()).size());
+            assertEquals("EEN", cache.get(ONE));
+        }
+    }
+
+    @Test
+    public void testDamagedLinesAreIgnored() throws Exception {
+        File own;
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            cache.put(ONE, "een");
+            cache.put(TWO, "twee");
+            cache.put(THREE, "drie");
+            own = cache.getOwnFile();
+        }
+        List<String> lines = lines(own);
+        // A merge that changed the second line, and a write cut short on the third
+        lines.set(1, lines.get(1).replace("twee", "TWEE"));
+        String third = lines.get(2);
+        lines.set(2, third.substring(0, third.length() - 2));
+        Files.write(own.toPath(), lines, StandardCharsets.UTF_8);
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            assertEquals(1, cache.size());
+            assertEquals("een", cache.get(ONE));
+            assertNull(cache.get(TWO));
+            assertNull(cache.get(THREE));
+        }
+    }
+
+    @Test
+    public void testLineWithoutNewlineIsIgnoredOnlyWhenIncomplete() throws Exception {
+        File own;
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            cache.put(ONE, "een");
+            cache.put(TWO, "twee");
+            own = cache.getOwnFile();
+        }
+        try (RandomAccessFile f = new RandomAccessFile(own, "rw")) {
+            f.setLength(f.length() - 1);
+        }
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            assertEquals("twee", cache.get(TWO));
+        }
+        try (RandomAccessFile f = new RandomAccessFile(own, "rw")) {
+            f.setLength(f.length() - 1);
+        }
+        try (ProjectTranslationCache cache = ProjectTranslationCache.load(internal, "alpha")) {
+            assertEquals("een", cache.get(ONE));
+            assertNull(cache.get(TWO));
+        }
+    }
+
+    @Test
+    public void testFilesOfAllWritersAreMerged() throws Exception {
+        try (ProjectTranslationCache alpha = ProjectTranslationCache.load(internal, "alpha");
+                ProjectTranslationCache beta = ProjectTranslationCache.load(internal, "beta")) {
+            alpha.put(ONE, "een");
+            alpha.put(TWO, "twee (alpha)");
+            nextMillisecond();
+            beta.put(TWO, "twee (beta)");
+            beta.put(THREE, "drie");
+            nextMillisecond();
+            alpha.put(THREE, "drie (alpha)");
+            // Every writer appends to its own file only
+            assertEquals(3, lines(alpha.getOwnFile()).size());
+            assertEquals(2, lines(beta.getOwnFile()).size());
+        }
+        try (ProjectTranslationCache gamma = ProjectTranslationCache.load(internal, "gamma")) {
+            assertEquals(3, gamma.size());
+            assertEquals("een", gamma.get(ONE));
+            // The most recent translation of a request wins, whoever wrote it
+            assertEquals("twee (beta)", gamma.get(TWO));
+            assertEquals("drie (alpha)", gamma.get(THREE));
+            assertFalse(gamma.getOwnFile().exists());
+        }
+    }
+
+    @Test
+    public void testJournalReadsOnlyItsOwnFile() throws Exception {
+        try (ProjectTranslationCache alpha = ProjectTranslationCache.load(internal, "alpha")) {
+            alpha.put(ONE, "een");
+        }
+        File journal = new File(new File(internal, ProjectTranslationCache.DIR), "journal.tsv");
+        try (ProjectTranslationCache cache = ProjectTranslationCache.open(journal)) {
+            assertEquals(0, cache.size());
+            cache.put(TWO, "twee");
+        }
+        try (ProjectTranslationCache cache = ProjectTranslationCache.open(journal)) {
+            assertNull(cache.get(ONE));
+            assertEquals("twee", cache.get(TWO));
+        }
+    }
+
+    @Test
+    public void testWriterIdIsStableAndSafeAsFileName() throws Exception {
+        TestPreferences.init();
+        String saved = Preferences.getPreferenceDefault(AutshumatoSettings.WRITER_ID, "");
+        try {
+            Preferences.setPreference(AutshumatoSettings.WRITER_ID, "");
+            String id = AutshumatoSettings.getWriterId();
+            assertTrue(id, id.matches("[A-Za-z0-9_-]{16,}"));
+            assertEquals(id, AutshumatoSettings.getWriterId());
+            Preferences.setPreference(AutshumatoSettings.WRITER_ID, " laptop/2 ");
+            assertEquals("laptop_2", AutshumatoSettings.getWriterId());
+        } finally {
+            Preferences.setPreference(AutshumatoSettings.WRITER_ID, saved);
+        }
+    }
+}
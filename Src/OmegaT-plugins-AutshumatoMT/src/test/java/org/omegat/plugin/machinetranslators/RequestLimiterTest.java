@@ -0,0 +1,156 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.omegat.util.Preferences;
+
+public class RequestLimiterTest
+{
+    private final RequestLimiter limiter = new RequestLimiter();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @BeforeClass
+    public static void initPreferences() throws Exception {
+        TestPreferences.init();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        Preferences.setPreference(AutshumatoSettings.REQUEST_RATE, AutshumatoSettings.DEFAULT_REQUEST_RATE);
+    }
+
+    // Waits until the given number of requests are queued in the limiter
+    private void awaitWaiting(int count) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getWaiting() != count) {
+            if (System.nanoTime() > end) {
+                fail(limiter.getWaiting() + " requests waiting, expected " + count);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testCancelWakesWaitingRequest() throws Exception {
+        limiter.onOverloaded(30000);
+        MTHttpClient.Call call = new MTHttpClient.Call(1000);
+        Future<?> waiting = pool.submit(() -> {
+            limiter.acquire(MTPriority.INTERACTIVE, call);
+            return null;
+        });
+        awaitWaiting(1);
+        long start = System.nanoTime();
+        call.cancel();
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("not cancelled");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RequestCancelledException);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void testCancelledBeforeWaiting() throws Exception {
+        MTHttpClient.Call call = new MTHttpClient.Call(1000);
+        call.cancel();
+        try {
+            limiter.acquire(MTPriority.BULK, call);
+            fail("not cancelled");
+        } catch (RequestCancelledException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCancelledRequestLeavesQueue() throws Exception {
+        limiter.onOverloaded(30000);
+        List<MTPriority> sent = new CopyOnWriteArrayList<>();
+        MTHttpClient.Call first = new MTHttpClient.Call(1000);
+        Future<?> cancelled = pool.submit(() -> {
+            limiter.acquire(MTPriority.INTERACTIVE, first);
+            sent.add(MTPriority.INTERACTIVE);
+            return null;
+        });
+        awaitWaiting(1);
+        Future<?> bulk = pool.submit(() -> {
+            limiter.acquire(MTPriority.BULK, new MTHttpClient.Call(1000));
+            sent.add(MTPriority.BULK);
+            return null;
+        });
+        awaitWaiting(2);
+        first.cancel();
+        awaitWaiting(1);
+        limiter.resume();
+        bulk.get(5, TimeUnit.SECONDS);
+        try {
+            cancelled.get(5, TimeUnit.SECONDS);
+            fail("not cancelled");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RequestCancelledException);
+        }
+        assertEquals(1, sent.size());
+        assertEquals(MTPriority.BULK, sent.get(0));
+    }
+
+    @Test
+    public void testHigherPrioritySentFirst() throws Exception {
+        // One token after the pause, so the second request waits a second
+        Preferences.setPreference(AutshumatoSettings.REQUEST_RATE, 1);
+        // Paused until both requests are queued
+        limiter.onOverloaded(30000);
+        List<MTPriority> sent = new CopyOnWriteArrayList<>();
+        Future<?> bulk = pool.submit(() -> {
+            limiter.acquire(MTPriority.BULK, new MTHttpClient.Call(1000));
+            sent.add(MTPriority.BULK);
+            return null;
+        });
+        awaitWaiting(1);
+        Future<?> interactive = pool.submit(() -> {
+            limiter.acquire(MTPriority.INTERACTIVE, new MTHttpClient.Call(1000));
+            sent.add(MTPriority.INTERACTIVE);
+            return null;
+        });
+        awaitWaiting(2);
+        limiter.resume();
+        bulk.get(5, TimeUnit.SECONDS);
+        interactive.get(5, TimeUnit.SECONDS);
+        assertEquals(MTPriority.INTERACTIVE, sent.get(0));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the single-pass response decoding with the regular expression
+ * replacement it replaced, on responses of about 5000 characters.
+ * <p>Not a unit test; run it by hand with the plugin and OmegaT on the
+ * classpath:
+ * <pre>java -cp ... org.omegat.plugin.machinetranslators.ResponseDecoderBenchmark</pre>
+ */
+public class ResponseDecoderBenchmark
+{
+    private static final Pattern RE_UNICODE = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
+    private static final Pattern RE_HTML = Pattern.compile("&#([0-9]+);");
+
+    private static final int RESPONSE_LENGTH = 5000;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        String[] parts = { "word ", "\\u00e9", "\\u00EA", "&quot;", "&nbsp;", "&amp;", "&#39;",
+                "&#8217;", "\\u0026quot;" };
+        StringBuilder typical = new StringBuilder();
+        while (typical.length() < RESPONSE_LENGTH) {
+            typical.append(parts[random.nextInt(parts.length)]);
+        }
+        // Every escape distinct, the worst case of replacing them one at a time
+        StringBuilder distinct = new StringBuilder();
+        for (int c = 0x100; distinct.length() < RESPONSE_LENGTH; c += 2) {
+            distinct.append("woord ").append(String.format("\\u%04x", c))
+                    .append(" &#").append(c + 1).append("; ");
+        }
+        run("typical mix of text and escapes", typical.toString());
+        run("many distinct escapes", distinct.toString());
+    }
+
+    private static void run(String label, String message) throws Exception {
+        byte[] response = ("{\"_status\":200,\"_message\":\"" + message + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        String expected = legacy(message);
+        if (!expected.equals(singlePass(response))) {
+            throw new AssertionError("Decoders disagree on " + label);
+        }
+        long legacyNanos = 0;
+        long singlePassNanos = 0;
+        int check = 0;
+        // The first rounds only warm up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                check += legacy(message).length();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                check += singlePass(response).length();
+            }
+            long t2 = System.nanoTime();
+            legacyNanos = t1 - t0;
+            singlePassNanos = t2 - t1;
+        }
+        System.out.printf("%s (%d chars): regex %.1f us, single pass %.1f us (%d)%n", label,
+                message.length(), legacyNanos / 1000.0 / ITERATIONS,
+                singlePassNanos / 1000.0 / ITERATIONS, check);
+    }
+
+    private static String singlePass(byte[] response) throws Exception {
+        return MTResponseReader.readTranslation(200, new ByteArrayInputStream(response));
+    }
+
+    // The decoding done before, on the message taken out of the response
+    private static String legacy(String v) {
+        while (true) {
+            Matcher m = RE_UNICODE.matcher(v);
+            if (!m.find()) {
+                break;
+            }
+            v = v.replace(m.group(), Character.toString((char) Integer.parseInt(m.group(1), 16)));
+        }
+        v = v.replace("&quot;", "&#34;");
+        v = v.replace("&nbsp;", "&#160;");
+        v = v.replace("&amp;", "&#38;");
+        while (true) {
+            Matcher m = RE_HTML.matcher(v);
+            if (!m.find()) {
+                break;
+            }
+            v = v.replace(m.group(), Character.toString((char) Integer.parseInt(m.group(1))));
+        }
+        return v;
+    }
+}
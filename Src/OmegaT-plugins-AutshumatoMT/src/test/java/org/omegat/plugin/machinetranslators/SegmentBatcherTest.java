@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentBatcherTest
+{
+    private static StandInMTService service;
+    private final MTHttpClient http = new MTHttpClient();
+
+    @BeforeClass
+    public static void startService() throws Exception {
+        TestPreferences.init();
+        service = new StandInMTService((request, text) -> translateLines(text));
+    }
+
+    @AfterClass
+    public static void stopService() {
+        service.close();
+    }
+
+    // Translates line by line like the service, ending every line with a line break
+    private static String translateLines(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : text.split("\n", -1)) {
+            sb.append(line.toUpperCase(Locale.ROOT)).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private String query(String text) throws Exception {
+        Map<String, String> p = new TreeMap<>();
+        p.put("source", "en");
+        p.put("target", "af");
+        p.put("text", text);
+        return http.get(service.getUrl(), p, Collections.<String, String>emptyMap(),
+                MTResponseReader::readTranslation);
+    }
+
+    @Test
+    public void testBatchRoundTripMatchesSingleRequests() throws Exception {
+        List<String> texts = Arrays.asList("The first segment.", "  Leading space", "Ümlaut & \"quotes\"",
+                "tab\there", "last one ");
+        for (String text : texts) {
+            assertTrue(SegmentBatcher.canPack(text, 4000));
+        }
+        List<List<Integer>> batches = SegmentBatcher.pack(texts, 4000, 50);
+        assertEquals(1, batches.size());
+
+        List<String> parts = SegmentBatcher.split(query(SegmentBatcher.join(texts, batches.get(0))), texts.size());
+        assertNotNull(parts);
+        assertEquals("THE FIRST SEGMENT.", parts.get(0));
+        assertEquals("  LEADING SPACE", parts.get(1));
+        assertEquals("ÜMLAUT & \"QUOTES\"", parts.get(2));
+        assertEquals("LAST ONE ", parts.get(4));
+        for (int i = 0; i < texts.size(); i++) {
+            assertEquals(SegmentBatcher.normalize(query(texts.get(i))), parts.get(i));
+        }
+        assertEquals(1 + texts.size(), service.getRequests());
+    }
+
+    @Test
+    public void testNormalizeKeepsSpaces() {
+        assertEquals(" text ", SegmentBatcher.normalize(" text \r\n"));
+        assertEquals("text", SegmentBatcher.normalize("text\n\n"));
+        assertEquals(Arrays.asList(" a", "b "), SegmentBatcher.split(" a\r\nb \r\n", 2));
+    }
+
+    @Test
+    public void testSplitLineCountMismatch() {
+        assertNull(SegmentBatcher.split("A\nB", 3));
+        assertNull(SegmentBatcher.split("A\n\nB\nC", 3));
+        assertEquals(Arrays.asList("A", "B", "C"), SegmentBatcher.split("A\r\nB\r\nC\r\n\r\n", 3));
+    }
+
+    @Test
+    public void testPackLimits() {
+        List<String> texts = Arrays.asList("aaaa", "bbbb", "cccc", "dddd", "eeee");
+        assertEquals(Arrays.asList(Arrays.asList(0, 1), Arrays.asList(2, 3), Arrays.asList(4)),
+                SegmentBatcher.pack(texts, 9, 50));
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4)),
+                SegmentBatcher.pack(texts, 4000, 3));
+    }
+
+    @Test
+    public void testCanPack() {
+        assertTrue(SegmentBatcher.canPack("text", 10));
+        assertFalse(SegmentBatcher.canPack("  ", 10));
+        assertFalse(SegmentBatcher.canPack("two\nlines", 10));
+        assertFalse(SegmentBatcher.canPack("too long for it", 10));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.omegat.util.Language;
+
+/**
+ * Splits texts into chunks and joins them again. Without a running OmegaT
+ * there is no project segmenter, so sentences are found by the Java
+ * sentence iterator.
+ */
+public class SentenceChunkerTest
+{
+    private static final Language EN = new Language("en");
+
+    private static List<String> upperCase(List<String> chunks) {
+        List<String> result = new ArrayList<>();
+        for (String chunk : chunks) {
+            result.add(chunk.toUpperCase());
+        }
+        return result;
+    }
+
+    // Every chunk fits and joining the chunks gives the text back
+    private static SentenceChunker check(String text, int maxLength) {
+        SentenceChunker chunker = SentenceChunker.split(EN, text, maxLength);
+        for (String chunk : chunker.getChunks()) {
+            assertTrue("chunk of " + chunk.length() + ": " + chunk, chunk.length() <= maxLength);
+            assertTrue("empty chunk", !chunk.isEmpty());
+        }
+        assertEquals(text, chunker.join(chunker.getChunks()));
+        return chunker;
+    }
+
+    @Test
+    public void testShortTextIsOneChunk() {
+        SentenceChunker chunker = check("One. Two.", 100);
+        assertEquals(Arrays.asList("One. Two."), chunker.getChunks());
+    }
+
+    @Test
+    public void testSentencesArePackedIntoChunks() {
+        SentenceChunker chunker = check("One. Two. Three is longer. Four.", 16);
+        assertEquals(Arrays.asList("One. Two.", "Three is longer.", "Four."), chunker.getChunks());
+    }
+
+    @Test
+    public void testTextBetweenChunksIsKept() {
+        String text = "  First sentence.\n\nSecond sentence.  Third one. ";
+        SentenceChunker chunker = check(text, 20);
+        assertEquals(Arrays.asList("First sentence.", "Second sentence.", "Third one."), chunker.getChunks());
+        assertEquals("  FIRST SENTENCE.\n\nSECOND SENTENCE.  THIRD ONE. ",
+                chunker.join(upperCase(chunker.getChunks())));
+    }
+
+    @Test
+    public void testLongSentenceIsSplitAtWhitespace() {
+        SentenceChunker chunker = check("A sentence without an end that goes on and on", 16);
+        // The third chunk ends right before a space, at the limit
+        assertEquals(Arrays.asList("A sentence", "without an end", "that goes on and", "on"),
+                chunker.getChunks());
+        assertEquals("A SENTENCE WITHOUT AN END THAT GOES ON AND ON",
+                chunker.join(upperCase(chunker.getChunks())));
+    }
+
+    @Test
+    public void testLongWordIsCut() {
+        SentenceChunker chunker = check("Pneumonoultramicroscopicsilicovolcanoconiosis.", 20);
+        assertEquals(Arrays.asList("Pneumonoultramicrosc", "opicsilicovolcanocon", "iosis."),
+                chunker.getChunks());
+    }
+
+    @Test
+    public void testSurrogatePairIsNotCut() {
+        String text = "abcdefghi😀jklmnop";
+        SentenceChunker chunker = check(text, 10);
+        assertEquals("abcdefghi", chunker.getChunks().get(0));
+        assertEquals("😀jklmnop", chunker.getChunks().get(1));
+    }
+
+    @Test
+    public void testRandomTexts() {
+        Random random = new Random(7);
+        String[] words = { "a", "kort", "sentence", "with", "words", "of", "different", "lengths",
+                "Pneumonoultramicroscopicsilicovolcanoconiosis", "😀" };
+        String[] gaps = { " ", " ", " ", "  ", "\n", ". ", "! ", "? ", ".\n\n" };
+        for (int n = 0; n < 200; n++) {
+            StringBuilder text = new StringBuilder();
+            int count = 1 + random.nextInt(80);
+            for (int i = 0; i < count; i++) {
+                text.append(words[random.nextInt(words.length)]).append(gaps[random.nextInt(gaps.length)]);
+            }
+            check(text.toString(), 8 + random.nextInt(100));
+        }
+    }
+}
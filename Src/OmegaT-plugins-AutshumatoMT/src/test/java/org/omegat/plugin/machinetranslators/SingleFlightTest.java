@@ -0,0 +1,137 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Joins requests in flight with callers of the same and of other priorities.
+ */
+public class SingleFlightTest
+{
+    private final SingleFlight<String, String> inFlight = new SingleFlight<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    // Holds the leader's request until the test lets it answer
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch answer = new CountDownLatch(1);
+    private ExecutorService pool;
+    private Future<String> leader;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newCachedThreadPool();
+        leader = pool.submit(() -> inFlight.run("key", new RequestScope(MTPriority.PREFETCH), () -> {
+            requests.incrementAndGet();
+            leaderStarted.countDown();
+            answer.await();
+            return "leader";
+        }));
+        leaderStarted.await(5, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        answer.countDown();
+        pool.shutdownNow();
+    }
+
+    private String ownRequest() {
+        requests.incrementAndGet();
+        return "own";
+    }
+
+    @Test
+    public void testJoinsRequestOfSamePriority() throws Exception {
+        Future<String> joined = pool.submit(() -> inFlight.run("key", new RequestScope(MTPriority.PREFETCH), this::ownRequest));
+        Thread.sleep(100);
+        assertFalse(joined.isDone());
+        answer.countDown();
+        assertEquals("leader", joined.get(5, TimeUnit.SECONDS));
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, requests.get());
+        assertEquals(0, inFlight.size());
+    }
+
+    @Test
+    public void testCancelledScopeEndsWait() throws Exception {
+        RequestScope scope = new RequestScope(MTPriority.BULK);
+        Future<String> joined = pool.submit(() -> inFlight.run("key", scope, this::ownRequest));
+        Thread.sleep(100);
+        scope.cancel();
+        try {
+            joined.get(5, TimeUnit.SECONDS);
+            fail("The wait was not cancelled");
+        } catch (ExecutionException ex) {
+            assertEquals(RequestCancelledException.class, ex.getCause().getClass());
+        }
+        // The leader goes on and is not affected
+        assertFalse(leader.isDone());
+        answer.countDown();
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testHigherPrioritySendsOwnRequest() throws Exception {
+        String tr = inFlight.run("key", new RequestScope(MTPriority.INTERACTIVE), this::ownRequest);
+        assertEquals("own", tr);
+        assertEquals(2, requests.get());
+        assertFalse(leader.isDone());
+        answer.countDown();
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(0, inFlight.size());
+    }
+
+    @Test
+    public void testLaterCallersJoinHigherPriorityRequest() throws Exception {
+        CountDownLatch ownStarted = new CountDownLatch(1);
+        CountDownLatch ownAnswer = new CountDownLatch(1);
+        Future<String> interactive = pool.submit(() -> inFlight.run("key", new RequestScope(MTPriority.INTERACTIVE), () -> {
+            requests.incrementAndGet();
+            ownStarted.countDown();
+            ownAnswer.await();
+            return "interactive";
+        }));
+        ownStarted.await(5, TimeUnit.SECONDS);
+        Future<String> joined = pool.submit(() -> inFlight.run("key", new RequestScope(MTPriority.INTERACTIVE), this::ownRequest));
+        Thread.sleep(100);
+        ownAnswer.countDown();
+        assertEquals("interactive", interactive.get(5, TimeUnit.SECONDS));
+        assertEquals("interactive", joined.get(5, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the Autshumato MT service on a local port, answering in the
+ * service's JSON envelope with whatever the test's responder returns.
+ */
+class StandInMTService implements Closeable
+{
+    /**
+     * Produces the translation of one request.
+     */
+    interface Responder
+    {
+        /**
+         * @param request Number of the request, counting from 1
+         * @param text Text parameter of the request
+         * @return the translation sent back
+         * @throws InterruptedException when the service is closed while the
+         * responder is waiting
+         * @throws ServiceError to answer with an error status instead
+         */
+        String translate(int request, String text) throws InterruptedException;
+    }
+
+    /**
+     * Thrown by a responder to answer with an error.
+     */
+    static class ServiceError extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ServiceError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Responder responder;
+
+    StandInMTService(Responder responder) throws IOException {
+        this.responder = responder;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        // Every request on its own thread, so a slow answer does not hold up the others
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the address to send requests to
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/translate";
+    }
+
+    /**
+     * @return the number of requests received so far
+     */
+    int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int request = requests.incrementAndGet();
+        String text = parameter(exchange.getRequestURI().getRawQuery(), "text");
+        int status = 200;
+        String message;
+        try {
+            message = responder.translate(request, text);
+        } catch (ServiceError ex) {
+            status = ex.status;
+            message = ex.getMessage();
+        } catch (InterruptedException ex) {
+            exchange.close();
+            return;
+        }
+        String body = "{\"_status\":" + status + ",\"_message\":\"" + escape(message) + "\"}";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException ex) {
+            // The client gave up on the request
+            exchange.close();
+        }
+    }
+
+    private static String parameter(String query, String name) throws UnsupportedEncodingException {
+        if (query != null) {
+            for (String p : query.split("&")) {
+                int eq = p.indexOf('=');
+                if (eq > 0 && URLDecoder.decode(p.substring(0, eq), "UTF-8").equals(name)) {
+                    return URLDecoder.decode(p.substring(eq + 1), "UTF-8");
+                }
+            }
+        }
+        return "";
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Replaces OmegaT tags by placeholders and puts them back into translations
+ * that kept, reordered, mangled or lost the placeholders.
+ */
+public class TagPlaceholdersTest
+{
+    private static final String SOURCE = "Click <b0>Save</b0> now";
+
+    @Test
+    public void testTextWithoutTagsIsUnchanged() {
+        TagPlaceholders p = TagPlaceholders.prepare("No tags {here}", true);
+        assertEquals("No tags {here}", p.getText());
+        assertEquals("Geen etikette {hier}", p.restore("Geen etikette {hier}"));
+    }
+
+    @Test
+    public void testTagsBecomePlaceholders() {
+        TagPlaceholders p = TagPlaceholders.prepare(SOURCE, true);
+        assertEquals("Click {0}Save{1} now", p.getText());
+        assertEquals("Klik <b0>Stoor</b0> nou", p.restore("Klik {0}Stoor{1} nou"));
+    }
+
+    @Test
+    public void testReorderedAndMangledPlaceholders() {
+        TagPlaceholders p = TagPlaceholders.prepare("<x0/>Open <i1>file</i1>", true);
+        assertEquals("{0}Open {1}file{2}", p.getText());
+        assertEquals("<i1>Lêer</i1> <x0/>oopmaak", p.restore("{ 1 }Lêer{2 } {0}oopmaak"));
+    }
+
+    @Test
+    public void testUnknownAndRepeatedPlaceholdersAreDropped() {
+        TagPlaceholders p = TagPlaceholders.prepare(SOURCE, true);
+        assertEquals("Klik <b0>Stoor</b0> nou", p.restore("Klik {0}Stoor{1}{0} nou{7}"));
+    }
+
+    @Test
+    public void testLostPlaceholdersAreAlignedToWords() {
+        TagPlaceholders p = TagPlaceholders.prepare(SOURCE, true);
+        assertEquals("Klik <b0>Stoor</b0> nou", p.restore("Klik Stoor nou"));
+        assertEquals("Klik <b0>Stoor</b0> nou", p.restore("Klik {0}Stoor nou"));
+        assertEquals("Klik <b0>Stoor</b0> nou", p.restore("Klik Stoor{1} nou"));
+    }
+
+    @Test
+    public void testTagsRemovedWhenTurnedOff() {
+        TagPlaceholders p = TagPlaceholders.prepare(SOURCE, false);
+        assertEquals("Click Save now", p.getText());
+        assertEquals("Klik Stoor nou", p.restore("Klik Stoor nou"));
+    }
+
+    @Test
+    public void testTagsRemovedWhenTextLooksLikePlaceholder() {
+        TagPlaceholders p = TagPlaceholders.prepare("Press <k0>{1}</k0> to start", true);
+        assertEquals("Press {1} to start", p.getText());
+        assertEquals("Druk {1} om te begin", p.restore("Druk {1} om te begin"));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  This file is part of the Autshumato Machine Translation plugin for OmegaT
+ *  The plugin provides the interface to connect to the Autshumato 
+ *  Machine Translation (MT) systems for South African languages.
+ *
+ *  Copyright (C) 2022 Centre for Text Technology (CTexT®)
+ *  Home page: https://humanities.nwu.ac.za/ctext
+ *  Project page: https://autshumato.sourceforge.net/
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.omegat.plugin.machinetranslators;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.omegat.util.Preferences;
+import org.omegat.util.RuntimePreferences;
+
+/**
+ * Initialises the OmegaT preferences the plugin settings are read from,
+ * in an empty configuration folder of their own.
+ */
+final class TestPreferences
+{
+    private static boolean initialised;
+
+    private TestPreferences() {
+    }
+
+    static synchronized void init() throws IOException {
+        if (initialised) {
+            return;
+        }
+        File dir = Files.createTempDirectory("autshumato-mt-test").toFile();
+        dir.deleteOnExit();
+        RuntimePreferences.setConfigDir(dir.getAbsolutePath());
+        Preferences.init();
+        initialised = true;
+    }
+}